@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.example.android.sunshine.app.benchmark.BenchmarkRunner;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/*
+    Measures the frames of the first scroll through the forecast list after the app starts,
+    with the view pool prefilled by ForecastViewPool and with every item inflated on demand.
+    Best run on its own, on a release-like build:
+
+    adb shell am instrument -w \
+        -e class com.example.android.sunshine.app.ForecastScrollBenchmark \
+        com.example.android.sunshine.app.test/android.test.InstrumentationTestRunner
+
+    The frame time percentiles, the frames that took longer than a refresh and how the items
+    were inflated are logged as JSON under the SunshineBenchmark tag.  This replaces the
+    stored weather with a made up forecast for the preferred location.
+ */
+@LargeTest
+public class ForecastScrollBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final int FORECAST_DAYS = 20;
+    private static final int LAUNCHES = 5;
+    // Time for the start to settle before the first scroll, as a user would take
+    private static final long SETTLE_MILLIS = 1000;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private ContentResolver mResolver;
+
+    public ForecastScrollBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getInstrumentation().getTargetContext().getContentResolver();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                Utility.getPreferredLocation(getInstrumentation().getTargetContext()));
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                location));
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] forecast = new ContentValues[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+            values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 - i);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            // A different condition each day, so the rows don't all share one icon
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, i % 2 == 0 ? 800 : 500 + i);
+            forecast[i] = values;
+        }
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastViewPool.sPrefillEnabled = true;
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testFirstScroll() throws Exception {
+        Scrolls onDemand = new Scrolls();
+        Scrolls prefilled = new Scrolls();
+        // Alternating, so neither gets all of the first launch's class loading
+        for (int launch = 0; launch < LAUNCHES; launch++) {
+            measureFirstScroll(false, onDemand);
+            measureFirstScroll(true, prefilled);
+        }
+        Log.i(BenchmarkRunner.LOG_TAG, "forecast_scroll on_demand " + onDemand.summarize());
+        Log.i(BenchmarkRunner.LOG_TAG, "forecast_scroll prefilled " + prefilled.summarize());
+    }
+
+    private void measureFirstScroll(boolean prefill, final Scrolls scrolls) throws Exception {
+        ForecastViewPool.sPrefillEnabled = prefill;
+        final MainActivity activity = getActivity();
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.recyclerview_forecast);
+        PollingCheck.check("The forecast was not shown", TIMEOUT_MILLIS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return list.getChildCount() > 0;
+            }
+        });
+        Thread.sleep(SETTLE_MILLIS);
+
+        final FrameRecorder recorder = new FrameRecorder();
+        final int lastPosition = list.getAdapter().getItemCount() - 1;
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+                list.smoothScrollToPosition(lastPosition);
+            }
+        });
+        PollingCheck.check("The list did not scroll to the end", TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        LinearLayoutManager layoutManager =
+                                (LinearLayoutManager) list.getLayoutManager();
+                        return list.getScrollState() == RecyclerView.SCROLL_STATE_IDLE
+                                && layoutManager.findLastVisibleItemPosition() == lastPosition;
+                    }
+                });
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+                // The pool's counts are only touched on the UI thread
+                ForecastViewPool viewPool = activity.getForecastViewPool();
+                scrolls.mPrefilled += viewPool.getPrefilledCount();
+                scrolls.mInflatedOnDemand += viewPool.getInflatedOnDemandCount();
+            }
+        });
+
+        recorder.addIntervals(scrolls.mIntervals);
+        scrolls.mRefreshNanos = (long) (1e9 / activity.getWindowManager().getDefaultDisplay()
+                .getRefreshRate());
+        scrolls.mLaunches++;
+
+        activity.finish();
+        setActivity(null);
+        getInstrumentation().waitForIdleSync();
+    }
+
+    /**
+     * What the first scrolls of one kind of launch added up to.
+     */
+    private static class Scrolls {
+        final ArrayList<Long> mIntervals = new ArrayList<Long>();
+        long mRefreshNanos;
+        int mPrefilled;
+        int mInflatedOnDemand;
+        int mLaunches;
+
+        JSONObject summarize() throws Exception {
+            assertFalse("No frames were recorded", mIntervals.isEmpty());
+            long[] sorted = new long[mIntervals.size()];
+            int slowFrames = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = mIntervals.get(i);
+                // A frame that took longer than a refresh means one was skipped
+                if (sorted[i] > mRefreshNanos * 3 / 2) {
+                    slowFrames++;
+                }
+            }
+            Arrays.sort(sorted);
+            JSONObject result = new JSONObject();
+            result.put("launches", mLaunches);
+            result.put("frames", sorted.length);
+            result.put("median_ns", sorted[sorted.length / 2]);
+            result.put("p90_ns", sorted[(sorted.length * 9) / 10]);
+            result.put("p99_ns", sorted[(sorted.length * 99) / 100]);
+            result.put("max_ns", sorted[sorted.length - 1]);
+            result.put("slow_frames", slowFrames);
+            result.put("refresh_ns", mRefreshNanos);
+            result.put("items_prefilled", mPrefilled);
+            result.put("items_inflated_on_demand", mInflatedOnDemand);
+            return result;
+        }
+    }
+
+    /**
+     * Records the start time of every frame between {@link #start()} and {@link #stop()}.  Both
+     * have to be called on the main thread.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        private final ArrayList<Long> mFrameTimes = new ArrayList<Long>();
+        private boolean mRunning;
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mRunning) {
+                mFrameTimes.add(frameTimeNanos);
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void addIntervals(ArrayList<Long> intervals) {
+            for (int i = 1; i < mFrameTimes.size(); i++) {
+                intervals.add(mFrameTimes.get(i) - mFrameTimes.get(i - 1));
+            }
+        }
+    }
+}
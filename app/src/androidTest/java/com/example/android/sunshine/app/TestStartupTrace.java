@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestStartupTrace extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StartupTrace.reset(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        StartupTrace.reset(mContext);
+        super.tearDown();
+    }
+
+    public void testPercentiles() {
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i + 1;
+        }
+        assertEquals("Error: Wrong p50", 50, StartupTrace.getPercentile(sorted, 50));
+        assertEquals("Error: Wrong p90", 90, StartupTrace.getPercentile(sorted, 90));
+        assertEquals("Error: p100 should be the maximum", 100,
+                StartupTrace.getPercentile(sorted, 100));
+        assertEquals("Error: A single sample is every percentile", 7,
+                StartupTrace.getPercentile(new long[]{7}, 50));
+        assertEquals("Error: No samples should give -1", -1,
+                StartupTrace.getPercentile(new long[0], 50));
+    }
+
+    public void testOnlyTheNewestSamplesAreKept() {
+        int count = StartupTrace.MAX_SAMPLES + 20;
+        for (int i = 0; i < count; i++) {
+            StartupTrace.addSample(mContext, i % 2 == 0, i);
+        }
+        long[] cold = StartupTrace.getSamples(mContext, true);
+        long[] warm = StartupTrace.getSamples(mContext, false);
+        assertEquals("Error: Wrong number of samples kept", StartupTrace.MAX_SAMPLES,
+                cold.length + warm.length);
+        assertEquals("Error: The oldest cold samples should have been dropped", 20, cold[0]);
+        assertEquals("Error: The newest warm sample is missing", count - 1,
+                warm[warm.length - 1]);
+    }
+
+    public void testLaunchIsRecorded() {
+        if (!StartupTrace.isEnabled()) {
+            return;
+        }
+        StartupTrace.onActivityCreated();
+        StartupTrace.mark(StartupTrace.MARK_LOADER_CREATED);
+        StartupTrace.mark(StartupTrace.MARK_LOAD_FINISHED);
+        StartupTrace.mark(StartupTrace.MARK_FIRST_BIND);
+        StartupTrace.onForecastDrawn(mContext);
+        // A second draw is not a new launch
+        StartupTrace.onForecastDrawn(mContext);
+
+        assertEquals("Error: Exactly one launch should have been recorded", 1,
+                StartupTrace.getSamples(mContext, true).length
+                        + StartupTrace.getSamples(mContext, false).length);
+
+        StringWriter out = new StringWriter();
+        StartupTrace.dump(mContext, new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue("Error: The last launch is missing from the dump:\n" + dump,
+                dump.contains("\"first_bind\""));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.benchmark;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A small harness for on-device microbenchmarks.  Each benchmark is warmed up, then timed over a
+ * number of iterations that each run the block {@code repetitions} times, and reports the median
+ * and spread per operation along with the objects and bytes the current thread allocated per
+ * operation.
+ * <p/>
+ * {@link #writeResults()} writes everything as JSON to
+ * {@code <external files dir>/benchmarks/<suite>.json} and logs one JSON line per benchmark under
+ * the {@code SunshineBenchmark} tag, so results from two builds can be pulled with
+ * {@code adb pull} or grepped out of logcat and diffed by a script.
+ */
+public class BenchmarkRunner {
+    public static final String LOG_TAG = "SunshineBenchmark";
+
+    public static final int DEFAULT_WARMUP_ITERATIONS = 5;
+    public static final int DEFAULT_ITERATIONS = 20;
+
+    public interface Block {
+        void run() throws Exception;
+    }
+
+    private final Context mContext;
+    private final String mSuite;
+    private final ArrayList<JSONObject> mResults = new ArrayList<JSONObject>();
+
+    public BenchmarkRunner(Context context, String suite) {
+        mContext = context;
+        mSuite = suite;
+    }
+
+    public JSONObject measure(String name, int repetitions, Block block) throws Exception {
+        return measure(name, DEFAULT_WARMUP_ITERATIONS, DEFAULT_ITERATIONS, repetitions, block);
+    }
+
+    /**
+     * Runs {@code block} {@code repetitions} times per iteration and records the result.
+     *
+     * @return the result as it will be written out
+     */
+    @SuppressWarnings("deprecation")
+    public JSONObject measure(String name, int warmupIterations, int iterations, int repetitions,
+                              Block block) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            for (int r = 0; r < repetitions; r++) {
+                block.run();
+            }
+        }
+
+        long[] nanosPerOp = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repetitions; r++) {
+                block.run();
+            }
+            nanosPerOp[i] = (System.nanoTime() - start) / repetitions;
+        }
+
+        // Counted in a separate pass, because allocation counting slows down the allocator
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int r = 0; r < repetitions; r++) {
+                block.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        double allocsPerOp = Debug.getThreadAllocCount() / (double) repetitions;
+        double bytesPerOp = Debug.getThreadAllocSize() / (double) repetitions;
+
+        Arrays.sort(nanosPerOp);
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("iterations", iterations);
+        result.put("repetitions", repetitions);
+        result.put("min_ns", nanosPerOp[0]);
+        result.put("median_ns", nanosPerOp[iterations / 2]);
+        result.put("p90_ns", nanosPerOp[(iterations * 9) / 10]);
+        result.put("max_ns", nanosPerOp[iterations - 1]);
+        result.put("allocs_per_op", allocsPerOp);
+        result.put("bytes_per_op", bytesPerOp);
+        mResults.add(result);
+        Log.i(LOG_TAG, mSuite + " " + result);
+        return result;
+    }
+
+    /**
+     * Writes the results collected so far, with enough about the device and build to tell runs
+     * apart.
+     *
+     * @return the file written, or null if external storage is unavailable
+     */
+    public File writeResults() throws IOException, JSONException {
+        JSONObject report = new JSONObject();
+        report.put("suite", mSuite);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("device", Build.MODEL);
+        report.put("fingerprint", Build.FINGERPRINT);
+        // Debuggable builds run with the JIT restricted, which skews the numbers
+        report.put("debuggable",
+                (mContext.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        report.put("results", new JSONArray(mResults));
+
+        File dir = mContext.getExternalFilesDir(null);
+        if (dir == null) {
+            Log.w(LOG_TAG, "No external storage, results are only in logcat");
+            return null;
+        }
+        dir = new File(dir, "benchmarks");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File file = new File(dir, mSuite + ".json");
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Wrote " + file);
+        return file;
+    }
+}
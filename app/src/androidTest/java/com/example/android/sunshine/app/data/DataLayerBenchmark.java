@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.example.android.sunshine.app.benchmark.BenchmarkRunner;
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Benchmarks for the data layer.  They live in the data package so they can reach the
+    provider's routes, and are best run on their own, on a release-like build:
+
+    adb shell am instrument -w \
+        -e class com.example.android.sunshine.app.data.DataLayerBenchmark \
+        com.example.android.sunshine.app.test/android.test.InstrumentationTestRunner
+
+    Results go to logcat and to benchmarks/data_layer.json in the app's external files dir, see
+    BenchmarkRunner.
+ */
+@LargeTest
+public class DataLayerBenchmark extends AndroidTestCase {
+    private static final long START_DATE = 1419033600000L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final int FORECAST_DAYS = 14;
+    private static final int LOCATION_COUNT = 10;
+
+    // The columns and indices the forecast list uses
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int COL_WEATHER_DATE = 1;
+    private static final int COL_WEATHER_DESC = 2;
+    private static final int COL_WEATHER_MAX_TEMP = 3;
+    private static final int COL_WEATHER_MIN_TEMP = 4;
+    private static final int COL_WEATHER_CONDITION_ID = 6;
+
+    private static final String[] WEATHER_ONLY_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private ContentResolver mResolver;
+    private ContentValues[] mForecast;
+    // Keeps the results of pure computations alive so they can't be optimized away
+    private long mSink;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(HistoryEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        long firstLocationId = -1;
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            if (i > 0) {
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                        TestUtilities.TEST_LOCATION + "-" + i);
+                location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488 - i);
+            }
+            long id = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI, location));
+            mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createForecast(id));
+            if (i == 0) {
+                firstLocationId = id;
+            }
+        }
+        mForecast = createForecast(firstLocationId);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ContentValues[] createForecast(long locationId) {
+        ContentValues[] forecast = new ContentValues[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationId);
+            values.put(WeatherEntry.COLUMN_DATE, START_DATE + i * DAY_IN_MILLIS);
+            forecast[i] = values;
+        }
+        return forecast;
+    }
+
+    public void testDataLayer() throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(mContext, "data_layer");
+        benchmarkQueries(runner);
+        benchmarkBulkInsert(runner);
+        benchmarkNormalizeDate(runner);
+        benchmarkUriMatcher(runner);
+        benchmarkCursorToModel(runner);
+        runner.writeResults();
+    }
+
+    private void benchmarkQueries(BenchmarkRunner runner) throws Exception {
+        String location = TestUtilities.TEST_LOCATION;
+        long endDate = START_DATE + FORECAST_DAYS * DAY_IN_MILLIS;
+        measureQuery(runner, "query weather", WeatherEntry.CONTENT_URI, null);
+        measureQuery(runner, "query weather/* joined",
+                WeatherEntry.buildWeatherLocationWithStartDate(location, START_DATE),
+                FORECAST_COLUMNS);
+        measureQuery(runner, "query weather/* weather only",
+                WeatherEntry.buildWeatherLocationWithStartDate(location, START_DATE),
+                WEATHER_ONLY_COLUMNS);
+        measureQuery(runner, "query weather/*/#",
+                WeatherEntry.buildWeatherLocationWithDate(location, START_DATE), null);
+        measureQuery(runner, "query location", LocationEntry.CONTENT_URI, null);
+        measureQuery(runner, "query location/nearest",
+                LocationEntry.buildNearestLocationUri(64.7488, -147.353, 5), null);
+        measureQuery(runner, "query history/*",
+                HistoryEntry.buildHistoryLocationWithRange(location, 0, endDate), null);
+        measureQuery(runner, "query aggregate/*",
+                AggregateEntry.buildAggregateLocationUri(location, START_DATE, endDate), null);
+        measureQuery(runner, "query aggregate",
+                AggregateEntry.buildAggregateUri(START_DATE, endDate), null);
+    }
+
+    private void measureQuery(BenchmarkRunner runner, String name, final Uri uri,
+                              final String[] projection) throws Exception {
+        runner.measure(name, 50, new BenchmarkRunner.Block() {
+            @Override
+            public void run() {
+                Cursor cursor = mResolver.query(uri, projection, null, null, null);
+                // getCount fills the window, which is where the query actually runs
+                mSink += cursor.getCount();
+                cursor.close();
+            }
+        });
+    }
+
+    private void benchmarkBulkInsert(BenchmarkRunner runner) throws Exception {
+        // The same days again, so every insert replaces a row like a sync does
+        runner.measure("bulkInsert " + FORECAST_DAYS + " days", 10, new BenchmarkRunner.Block() {
+            @Override
+            public void run() {
+                mSink += mResolver.bulkInsert(WeatherEntry.CONTENT_URI, mForecast);
+            }
+        });
+    }
+
+    private void benchmarkNormalizeDate(BenchmarkRunner runner) throws Exception {
+        runner.measure("normalizeDate", 10000, new BenchmarkRunner.Block() {
+            long mTime = START_DATE;
+
+            @Override
+            public void run() {
+                mTime += 997;
+                mSink += WeatherContract.normalizeDate(mTime);
+            }
+        });
+    }
+
+    private void benchmarkUriMatcher(BenchmarkRunner runner) throws Exception {
+        final UriMatcher matcher = WeatherProvider.buildUriMatcher();
+        final Uri[] uris = {
+                WeatherEntry.CONTENT_URI,
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        START_DATE),
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, START_DATE),
+                LocationEntry.CONTENT_URI,
+                AggregateEntry.buildAggregateLocationUri(TestUtilities.TEST_LOCATION, 0,
+                        START_DATE)
+        };
+        runner.measure("UriMatcher.match", 10000, new BenchmarkRunner.Block() {
+            int mNext;
+
+            @Override
+            public void run() {
+                mSink += matcher.match(uris[mNext]);
+                mNext = (mNext + 1) % uris.length;
+            }
+        });
+    }
+
+    private void benchmarkCursorToModel(BenchmarkRunner runner) throws Exception {
+        final Cursor cursor = mResolver.query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        START_DATE), FORECAST_COLUMNS, null, null, null);
+        assertEquals(FORECAST_DAYS, cursor.getCount());
+        try {
+            // Fixed column indices, as ForecastAdapter and DetailFragment read the cursor
+            runner.measure("cursor to model, fixed indices", 1000, new BenchmarkRunner.Block() {
+                @Override
+                public void run() {
+                    cursor.moveToPosition(-1);
+                    while (cursor.moveToNext()) {
+                        mSink += new ForecastDay(cursor.getLong(COL_WEATHER_DATE),
+                                cursor.getString(COL_WEATHER_DESC),
+                                cursor.getDouble(COL_WEATHER_MAX_TEMP),
+                                cursor.getDouble(COL_WEATHER_MIN_TEMP),
+                                cursor.getInt(COL_WEATHER_CONDITION_ID)).weatherId;
+                    }
+                }
+            });
+            // Looking the columns up by name on every row, as the wearable code used to
+            runner.measure("cursor to model, getColumnIndex", 1000, new BenchmarkRunner.Block() {
+                @Override
+                public void run() {
+                    cursor.moveToPosition(-1);
+                    while (cursor.moveToNext()) {
+                        mSink += new ForecastDay(
+                                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)),
+                                cursor.getString(cursor.getColumnIndex(
+                                        WeatherEntry.COLUMN_SHORT_DESC)),
+                                cursor.getDouble(cursor.getColumnIndex(
+                                        WeatherEntry.COLUMN_MAX_TEMP)),
+                                cursor.getDouble(cursor.getColumnIndex(
+                                        WeatherEntry.COLUMN_MIN_TEMP)),
+                                cursor.getInt(cursor.getColumnIndex(
+                                        WeatherEntry.COLUMN_WEATHER_ID))).weatherId;
+                    }
+                }
+            });
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class ForecastDay {
+        final long date;
+        final String description;
+        final double high;
+        final double low;
+        final int weatherId;
+
+        ForecastDay(long date, String description, double high, double low, int weatherId) {
+            this.date = date;
+            this.description = description;
+            this.high = high;
+            this.low = low;
+            this.weatherId = weatherId;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Simulates years of syncs against the provider, moving the clock forward through the
+    METHOD_ARCHIVE_WEATHER extra, and checks that the history stays bounded and correct.
+ */
+public class TestHistory extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = HistoryCompactor.DAY_IN_MILLIS;
+    private static final long START_DATE = 1262304000000L;  // January 1st, 2010
+    private static final int FORECAST_DAYS = 14;
+
+    // Rows per period can't exceed the retention divided by the period length, plus the
+    // partially filled periods at either end
+    private static final int MAX_DAY_ROWS = HistoryCompactor.DEFAULT_DAILY_RETENTION_DAYS + 7 + 1;
+    private static final int MAX_WEEK_ROWS =
+            (HistoryCompactor.DEFAULT_WEEKLY_RETENTION_DAYS + 31) / 7 + 2;
+    private static final int MAX_MONTH_ROWS =
+            HistoryCompactor.DEFAULT_MONTHLY_RETENTION_DAYS / 28 + 2;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /*
+        Like the sync adapter, inserts a forecast starting today and archives everything up to
+        yesterday.  Each day's low is its day number, so aggregates can be checked afterwards.
+     */
+    private void syncOn(long today) {
+        ContentValues[] forecast = new ContentValues[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            long date = today + i * DAY_IN_MILLIS;
+            ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+            values.put(WeatherEntry.COLUMN_DATE, date);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, (date - START_DATE) / DAY_IN_MILLIS);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, (date - START_DATE) / DAY_IN_MILLIS + 10);
+            forecast[i] = values;
+        }
+        // replace the forecast for the coming days, as a fresh download would
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{Long.toString(today)});
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_NOW, today);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ARCHIVE_WEATHER,
+                Long.toString(today - DAY_IN_MILLIS), extras);
+    }
+
+    private int countHistoryRows(int period) {
+        Cursor cursor = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI, null,
+                HistoryEntry.COLUMN_PERIOD + " = ?", new String[]{Integer.toString(period)}, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testHistoryStaysBoundedOverYears() {
+        // a week between syncs keeps the test fast while still crossing every boundary
+        long today = START_DATE;
+        for (int week = 0; week < 52 * 7; week++) {
+            syncOn(today);
+            today += 7 * DAY_IN_MILLIS;
+
+            if (week % 52 == 51) {
+                int days = countHistoryRows(HistoryEntry.PERIOD_DAY);
+                int weeks = countHistoryRows(HistoryEntry.PERIOD_WEEK);
+                int months = countHistoryRows(HistoryEntry.PERIOD_MONTH);
+                assertTrue("Error: Too many daily history rows after " + (week + 1) + " weeks: " +
+                        days, days <= MAX_DAY_ROWS);
+                assertTrue("Error: Too many weekly history rows after " + (week + 1) + " weeks: " +
+                        weeks, weeks <= MAX_WEEK_ROWS);
+                assertTrue("Error: Too many monthly history rows after " + (week + 1) + " weeks: " +
+                        months, months <= MAX_MONTH_ROWS);
+            }
+        }
+
+        Cursor weather = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(today - 7 * DAY_IN_MILLIS)}, null);
+        assertEquals("Error: Expired weather was left in the weather table", 0, weather.getCount());
+        weather.close();
+
+        Cursor months = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI,
+                new String[]{"MIN(" + HistoryEntry.COLUMN_START_DATE + ")"},
+                HistoryEntry.COLUMN_PERIOD + " = ?",
+                new String[]{Integer.toString(HistoryEntry.PERIOD_MONTH)}, null);
+        assertTrue("Error: The monthly history should not be empty",
+                months.moveToFirst() && !months.isNull(0));
+        long oldestRetained = HistoryCompactor.startOfMonth(today - 7 * DAY_IN_MILLIS
+                - HistoryCompactor.DEFAULT_MONTHLY_RETENTION_DAYS * DAY_IN_MILLIS);
+        assertTrue("Error: Months past the monthly retention should have been dropped",
+                months.getLong(0) >= oldestRetained);
+        months.close();
+    }
+
+    public void testRollUpKeepsAggregates() {
+        // 90 days of history: the older days get rolled up into weeks
+        long today = START_DATE + 90 * DAY_IN_MILLIS;
+        for (long day = START_DATE; day <= today; day += 7 * DAY_IN_MILLIS) {
+            syncOn(day);
+        }
+        syncOn(today);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION,
+                        START_DATE - 7 * DAY_IN_MILLIS, today),
+                new String[]{"SUM(" + HistoryEntry.COLUMN_DAY_COUNT + ")",
+                        "MIN(" + HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_MIN_TEMP + ")",
+                        "MAX(" + HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_MAX_TEMP + ")",
+                        "AVG(" + HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_HUMIDITY + ")"},
+                null, null, null);
+        assertTrue("Error: No history returned for the location", cursor.moveToFirst());
+        assertEquals("Error: Every archived day should be counted once", 90, cursor.getInt(0));
+        assertEquals("Error: The lowest temperature was lost in the roll-up", 0.0, cursor.getDouble(1));
+        assertEquals("Error: The highest temperature was lost in the roll-up", 99.0, cursor.getDouble(2));
+        assertEquals("Error: The averages should be weighted by day", 1.2, cursor.getDouble(3), 0.001);
+        cursor.close();
+
+        assertTrue("Error: Days older than the daily retention should be rolled up",
+                countHistoryRows(HistoryEntry.PERIOD_WEEK) > 0);
+    }
+}
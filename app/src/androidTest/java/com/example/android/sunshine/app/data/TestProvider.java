@@ -29,6 +29,7 @@ import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.core.ForecastBlob;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -56,6 +57,21 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeatherContract.SyncTelemetryEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -230,10 +246,375 @@ public class TestProvider extends AndroidTestCase {
         }
     }
 
+    /*
+        This test inserts a location through the provider, so that its grid cell is filled in,
+        and then looks it up from nearby coordinates.
+     */
+    public void testNearestLocationQuery() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        // About 1km north-east of the North Pole location
+        Cursor locationCursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(64.7560, -147.340, 2),
+                null,
+                null,
+                null,
+                null
+        );
+        assertTrue("Error: No location found near the North Pole location",
+                locationCursor.moveToFirst());
+        assertEquals("Error: The wrong location was found",
+                locationRowId, locationCursor.getLong(locationCursor.getColumnIndex(LocationEntry._ID)));
+        locationCursor.close();
+
+        // Too far away for the radius
+        locationCursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(64.9, -147.353, 2),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: A location outside of the radius was found",
+                0, locationCursor.getCount());
+        locationCursor.close();
+    }
+
+    public void testWeatherOnlyProjection() {
+        assertFalse("Error: Weather columns alone should not need the location join",
+                WeatherProvider.needsLocationJoin(new String[]{
+                        WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                        WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                        WeatherEntry.COLUMN_DATE + " ASC"));
+        assertTrue("Error: A location column needs the location join",
+                WeatherProvider.needsLocationJoin(new String[]{
+                        WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_COORD_LAT}, null));
+        assertTrue("Error: All columns include the location columns",
+                WeatherProvider.needsLocationJoin(null, null));
+
+        String[] projection = {WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE};
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                projection, null, null, null);
+        assertEquals("Error: Weather-only query returned the wrong number of days",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // Recreate the location under a new _id; the cached id must not be used any more
+        deleteAllRecordsFromProvider();
+        locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues weatherValues =
+                TestUtilities.createWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                projection, null, null, null);
+        assertEquals("Error: Weather-only query used a stale location id", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFineGrainedNotifications() throws InterruptedException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long millisecondsInADay = 1000*60*60*24;
+
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, listObserver);
+        TestUtilities.TestContentObserver otherDateObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 3 * millisecondsInADay), true, otherDateObserver);
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("London, UK"), true, otherLocationObserver);
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        listObserver.waitForNotificationOrFail();
+        otherDateObserver.assertNoNotification(500);
+        otherLocationObserver.assertNoNotification(0);
+        mContext.getContentResolver().unregisterContentObserver(listObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDateObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+
+        // A delete that matches nothing shouldn't notify anyone
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{"0"});
+        assertEquals(0, deleted);
+        weatherObserver.assertNoNotification(500);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+    }
+
+    public void testRangeAndAggregateQueries() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        long millisecondsInADay = 1000*60*60*24;
+        long startDate = TestUtilities.TEST_DATE + 2 * millisecondsInADay;
+        long endDate = TestUtilities.TEST_DATE + 5 * millisecondsInADay;
+
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        startDate, endDate),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: The range query returned the wrong number of days",
+                4, weatherCursor.getCount());
+        weatherCursor.close();
+
+        // A page of days from the start date
+        weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        startDate, 3),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: The limit was not applied", 3, weatherCursor.getCount());
+        assertTrue(weatherCursor.moveToFirst());
+        assertEquals("Error: The page should begin at the start date",
+                WeatherContract.normalizeDate(startDate),
+                weatherCursor.getLong(weatherCursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        weatherCursor.close();
+
+        // The next page, from the days after the last one of the page before
+        long lastDate = WeatherContract.normalizeDate(startDate + 2 * millisecondsInADay);
+        weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationAfterDate(TestUtilities.TEST_LOCATION,
+                        lastDate, 3),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: The limit was not applied to the next page",
+                3, weatherCursor.getCount());
+        assertTrue(weatherCursor.moveToFirst());
+        assertEquals("Error: The next page should begin the day after the key",
+                WeatherContract.normalizeDate(lastDate + millisecondsInADay),
+                weatherCursor.getLong(weatherCursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        weatherCursor.close();
+
+        Cursor aggregateCursor = mContext.getContentResolver().query(
+                WeatherContract.AggregateEntry.buildAggregateLocationUri(
+                        TestUtilities.TEST_LOCATION, startDate, endDate),
+                new String[]{WeatherContract.AggregateEntry.COLUMN_DAY_COUNT,
+                        WeatherContract.AggregateEntry.COLUMN_LOW_MIN,
+                        WeatherContract.AggregateEntry.COLUMN_HIGH_MAX,
+                        WeatherContract.AggregateEntry.COLUMN_HIGH_AVG},
+                null,
+                null,
+                null
+        );
+        assertTrue("Error: No aggregate returned for the location", aggregateCursor.moveToFirst());
+        assertEquals("Error: Wrong day count in the aggregate", 4, aggregateCursor.getInt(0));
+        assertEquals("Error: Wrong lowest temperature in the aggregate", 60.0, aggregateCursor.getDouble(1));
+        assertEquals("Error: Wrong highest temperature in the aggregate", 80.0, aggregateCursor.getDouble(2));
+        assertEquals("Error: Wrong average high in the aggregate", 78.5, aggregateCursor.getDouble(3), 0.001);
+        aggregateCursor.close();
+
+        // Without a location there is one row per location
+        aggregateCursor = mContext.getContentResolver().query(
+                WeatherContract.AggregateEntry.buildAggregateUri(startDate, endDate),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Expected one aggregate row per location", 1, aggregateCursor.getCount());
+        aggregateCursor.close();
+    }
+
     /*
         This test uses the provider to insert and then update the data. Uncomment this test to
         see if your update location is functioning correctly.
      */
+    /*
+        The telemetry table is a rolling window: inserting past MAX_ROWS drops the oldest rows.
+     */
+    public void testForecastBlob() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] types = mContext.getContentResolver().getStreamTypes(weatherUri,
+                WeatherEntry.BLOB_MIME_TYPE);
+        assertNotNull("Error: weather/* should offer the forecast blob", types);
+        assertEquals(WeatherEntry.BLOB_MIME_TYPE, types[0]);
+
+        ForecastBlob blob = ForecastBlobReader.read(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertNotNull("Error: The forecast blob could not be read", blob);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, blob.getDayCount());
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        for (int day = 0; cursor.moveToNext(); day++) {
+            assertEquals(cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)),
+                    blob.getDate(day));
+            assertEquals(cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)),
+                    blob.getWeatherId(day));
+            assertEquals(cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)),
+                    blob.getHigh(day), 0.05);
+            assertEquals(cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)),
+                    blob.getLow(day), 0.05);
+            assertEquals(cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED)),
+                    blob.getWindSpeed(day), 0.05);
+        }
+        cursor.close();
+    }
+
+    public void testForecastSnapshot() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+
+        assertNotNull("Error: The forecast snapshot could not be published",
+                ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE));
+        ForecastBlob snapshot = ForecastSnapshot.map(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: The published snapshot could not be mapped", snapshot);
+        assertNull("Error: Another location shouldn't have a snapshot",
+                ForecastSnapshot.map(mContext, TestUtilities.TEST_LOCATION + "-other"));
+
+        // The snapshot holds the same days as the provider's blob
+        ForecastBlob blob = ForecastBlobReader.read(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertEquals(blob.getDayCount(), snapshot.getDayCount());
+        for (int day = 0; day < blob.getDayCount(); day++) {
+            assertEquals(blob.getDate(day), snapshot.getDate(day));
+            assertEquals(blob.getWeatherId(day), snapshot.getWeatherId(day));
+            assertEquals(blob.getHigh(day), snapshot.getHigh(day));
+            assertEquals(blob.getLow(day), snapshot.getLow(day));
+        }
+
+        // Publishing another location replaces the snapshot, and reading falls back to the
+        // provider
+        assertNotNull(ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION + "-other",
+                TestUtilities.TEST_DATE));
+        assertNull("Error: The old snapshot should have been removed",
+                ForecastSnapshot.map(mContext, TestUtilities.TEST_LOCATION));
+        ForecastBlob fallback = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        assertNotNull("Error: Reading should fall back to the provider", fallback);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, fallback.getDayCount());
+    }
+
+    public void testHourlyWindowQuery() {
+        final long STEP = 3 * 60 * 60;
+        final long START_TIME = 1419033600L;  // December 20th, 2014, in seconds
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationId = ContentUris.parseId(locationUri);
+
+        ContentValues[] points = new ContentValues[8];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = createHourlyValues(locationId, START_TIME + i * STEP, i * 10);
+        }
+        assertEquals(points.length, mContext.getContentResolver().bulkInsert(
+                WeatherContract.HourlyEntry.CONTENT_URI, points));
+
+        // From the second point up to, but not including, the fifth
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithWindow(
+                        TestUtilities.TEST_LOCATION, (START_TIME + STEP) * 1000,
+                        (START_TIME + 4 * STEP) * 1000),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME,
+                        WeatherContract.HourlyEntry.COLUMN_TEMP},
+                null, null, null);
+        assertEquals("Error: Hourly window returned the wrong number of points",
+                3, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(START_TIME + STEP, cursor.getLong(0));
+        assertEquals(10, cursor.getInt(1));
+        cursor.close();
+
+        // A newer forecast replaces the points it overlaps and drops the ones before it
+        ContentValues[] newer = {
+                createHourlyValues(locationId, START_TIME + 2 * STEP, -50),
+                createHourlyValues(locationId, START_TIME + 3 * STEP, -40)
+        };
+        mContext.getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI, newer);
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithWindow(
+                        TestUtilities.TEST_LOCATION, 0, Long.MAX_VALUE),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME,
+                        WeatherContract.HourlyEntry.COLUMN_TEMP},
+                null, null, null);
+        assertEquals("Error: Old hourly points were not replaced", 6, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(START_TIME + 2 * STEP, cursor.getLong(0));
+        assertEquals(-50, cursor.getInt(1));
+        cursor.close();
+    }
+
+    private static ContentValues createHourlyValues(long locationId, long time, int temp) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TIME, time);
+        values.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, 321);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TEMP, temp);
+        values.put(WeatherContract.HourlyEntry.COLUMN_PACKED, 0L);
+        return values;
+    }
+
+    public void testSyncTelemetryIsTrimmed() {
+        int total = WeatherContract.SyncTelemetryEntry.MAX_ROWS + 10;
+        for (int i = 0; i < total; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_START_TIME, i);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_LOCATION_SETTING,
+                    TestUtilities.TEST_LOCATION);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_PREFERRED, 1);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_MANUAL, 0);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_OUTCOME, 0);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_TOTAL_MILLIS, 100);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_CONNECT_MILLIS, 10);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_DOWNLOAD_MILLIS, 40);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_PARSE_MILLIS, 20);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_WRITE_MILLIS, 20);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_FANOUT_MILLIS, 10);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_BYTES, 2048);
+            values.put(WeatherContract.SyncTelemetryEntry.COLUMN_ROWS, 14);
+            mContext.getContentResolver().insert(WeatherContract.SyncTelemetryEntry.CONTENT_URI,
+                    values);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncTelemetryEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncTelemetryEntry.COLUMN_START_TIME},
+                null, null, WeatherContract.SyncTelemetryEntry.COLUMN_START_TIME + " ASC");
+        assertEquals("Error: The sync telemetry should keep only the newest rows",
+                WeatherContract.SyncTelemetryEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest sync telemetry rows should be dropped first",
+                total - WeatherContract.SyncTelemetryEntry.MAX_ROWS, cursor.getLong(0));
+        cursor.close();
+    }
+
     public void testUpdateLocation() {
         // Create a new map of values, where column names are the keys
         ContentValues values = TestUtilities.createNorthPoleLocationValues();
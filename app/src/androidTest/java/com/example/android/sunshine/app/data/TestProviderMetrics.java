@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestProviderMetrics extends AndroidTestCase {
+
+    public void testPercentiles() {
+        ProviderMetrics.RouteStats stats = new ProviderMetrics.RouteStats();
+        // 1..1000 ms, one sample each
+        for (int i = 1; i <= 1000; i++) {
+            stats.add(i * 1000L, 1);
+        }
+        assertWithinBucket("p50", 500 * 1000L, stats.getPercentileMicros(50));
+        assertWithinBucket("p95", 950 * 1000L, stats.getPercentileMicros(95));
+        assertWithinBucket("p99", 990 * 1000L, stats.getPercentileMicros(99));
+        assertEquals("Error: p100 should be the maximum", 1000 * 1000L,
+                stats.getPercentileMicros(100));
+    }
+
+    private static void assertWithinBucket(String name, long expected, long actual) {
+        // a bucket is at most a quarter wider than its lower bound
+        assertTrue("Error: " + name + " was " + actual + ", expected about " + expected,
+                actual >= expected && actual <= expected * 5 / 4 + 1);
+    }
+
+    public void testDumpListsRoutesAndSlowOperations() {
+        ProviderMetrics metrics = new ProviderMetrics(true, WeatherProvider.buildRouteNames());
+        metrics.record(ProviderMetrics.OP_QUERY, WeatherProvider.WEATHER_WITH_LOCATION,
+                2 * 1000 * 1000L, 14, null, null, null, null);
+        metrics.record(ProviderMetrics.OP_DELETE, WeatherProvider.WEATHER,
+                (ProviderMetrics.SLOW_MILLIS + 1) * 1000 * 1000L, 3, "date <= ?",
+                new String[]{"1419033600000"}, null, null);
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue("Error: The route of the query is missing from the dump:\n" + dump,
+                dump.contains("query " + WeatherContract.PATH_WEATHER + "/*: 1 "));
+        assertTrue("Error: The slow delete is missing from the dump:\n" + dump,
+                dump.contains("selection=date <= ?, args=[1419033600000]"));
+
+        metrics.reset();
+        out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+        assertFalse("Error: Reset should clear the slow log",
+                out.toString().contains("selection="));
+    }
+}
@@ -158,6 +158,13 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        public void assertNoNotification(long waitMillis) throws InterruptedException {
+            // A notification would arrive within the same time as the ones we wait for above
+            Thread.sleep(waitMillis);
+            assertFalse("Unexpected content change notification", mContentChanged);
+            mHT.quit();
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
@@ -18,6 +18,10 @@ package com.example.android.sunshine.app.data;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 
+import com.example.android.sunshine.core.ForecastBlob;
+
+import java.nio.ByteBuffer;
+
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
     that we expect you to write.
@@ -27,6 +31,8 @@ public class TestWeatherContract extends AndroidTestCase {
     // intentionally includes a slash to make sure Uri is getting quoted correctly
     private static final String TEST_WEATHER_LOCATION = "/North Pole";
     private static final long TEST_WEATHER_DATE = 1419033600L;  // December 20th, 2014
+    private static final long HOUR_IN_MILLIS = 1000L * 60 * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
 
     /*
         Students: Uncomment this out to test your weather location function.
@@ -42,4 +48,21 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        The forecast's dates are the starts of their days, so today is only found from a
+        normalized date: a time later in the day is after today's record.
+     */
+    public void testFindTodayFromNormalizedDate() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ForecastBlob forecast = ForecastBlob.wrap(ByteBuffer.wrap(
+                new ForecastBlob.Writer(2, today)
+                        .addDay(today, 800, 20, 10, 50, 1013, 5, 180)
+                        .addDay(today + DAY_IN_MILLIS, 500, 18, 9, 60, 1010, 7, 200)
+                        .toByteArray()));
+
+        long midDay = today + 13 * HOUR_IN_MILLIS;
+        assertEquals("Error: Today's record wasn't found from a time later in the day",
+                0, forecast.findDay(WeatherContract.normalizeDate(midDay)));
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.benchmark.BenchmarkRunner;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTelemetryEntry;
+
+import org.json.JSONObject;
+
+/*
+    Drives SunshineSyncAdapter against the stand-in server in the owmserver module, which has to
+    be running on the development machine with its default failure rates of zero:
+
+    ./gradlew :owmserver:run -PserverArgs="--latency 50 --jitter 100"
+    adb shell am instrument -w \
+        -e class com.example.android.sunshine.app.sync.SyncLoadGenerator \
+        com.example.android.sunshine.app.test/android.test.InstrumentationTestRunner
+
+    The locations cycle through the server's failure scenarios, so every sync has a known
+    outcome and the test checks that each failure is reported the way the app expects.  The
+    throughput and outcome counts are logged as JSON under the SunshineBenchmark tag.
+ */
+@LargeTest
+public class SyncLoadGenerator extends AndroidTestCase {
+    // The host machine, as seen from the emulator
+    private static final String SERVER_URL = "http://10.0.2.2:8080/data/2.5/";
+    private static final int SYNC_COUNT = 100;
+
+    // Locations understood by OwmStandInServer, with the outcome each should be recorded with
+    private static final String[] LOCATIONS = {
+            "94043", "Fairbanks", "Berlin", "404", "cod404", "truncated", "500", "cod500"
+    };
+    private static final int[] EXPECTED_OUTCOMES = {
+            SunshineSyncAdapter.LOCATION_STATUS_OK,
+            SunshineSyncAdapter.LOCATION_STATUS_OK,
+            SunshineSyncAdapter.LOCATION_STATUS_OK,
+            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+            SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+            SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN
+    };
+    private static final String[] OUTCOME_NAMES = {
+            "ok", "server_down", "server_invalid", "unknown", "invalid"
+    };
+
+    private SharedPreferences mPrefs;
+    private String mSavedLocation;
+    private float mSavedLatitude;
+    private float mSavedLongitude;
+    private boolean mHadLatLon;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String latitudeKey = mContext.getString(R.string.pref_location_latitude);
+        String longitudeKey = mContext.getString(R.string.pref_location_longitude);
+        mSavedLocation = mPrefs.getString(mContext.getString(R.string.pref_location_key), null);
+        mHadLatLon = mPrefs.contains(latitudeKey) && mPrefs.contains(longitudeKey);
+        mSavedLatitude = mPrefs.getFloat(latitudeKey, 0);
+        mSavedLongitude = mPrefs.getFloat(longitudeKey, 0);
+        // Query by name, so that the location picks the scenario
+        mPrefs.edit().remove(latitudeKey).remove(longitudeKey).commit();
+        // The failing scenarios never come three in a row, but a circuit left open by an earlier
+        // run would block every sync
+        SyncBackoff.getInstance(mContext).reset();
+        SunshineSyncAdapter.setOwmBaseUrl(SERVER_URL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setOwmBaseUrl(null);
+        SyncBackoff.getInstance(mContext).reset();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation != null) {
+            editor.putString(locationKey, mSavedLocation);
+        } else {
+            editor.remove(locationKey);
+        }
+        if (mHadLatLon) {
+            editor.putFloat(mContext.getString(R.string.pref_location_latitude), mSavedLatitude)
+                    .putFloat(mContext.getString(R.string.pref_location_longitude),
+                            mSavedLongitude);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    public void testSyncThroughput() throws Exception {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, true);
+        Bundle extras = new Bundle();
+        // Manual syncs are never deferred and don't prefetch other locations
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+
+        int[] outcomeCounts = new int[OUTCOME_NAMES.length];
+        long totalMillis = 0;
+        long lastTelemetryId = getLastTelemetryId();
+        long start = System.nanoTime();
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            int scenario = i % LOCATIONS.length;
+            mPrefs.edit().putString(locationKey, LOCATIONS[scenario]).commit();
+            adapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY, null,
+                    new SyncResult());
+
+            Cursor cursor = mContext.getContentResolver().query(SyncTelemetryEntry.CONTENT_URI,
+                    new String[]{SyncTelemetryEntry._ID, SyncTelemetryEntry.COLUMN_OUTCOME,
+                            SyncTelemetryEntry.COLUMN_TOTAL_MILLIS},
+                    SyncTelemetryEntry._ID + " > ?",
+                    new String[]{Long.toString(lastTelemetryId)},
+                    SyncTelemetryEntry._ID + " ASC");
+            try {
+                assertEquals("Expected one telemetry row for the sync of " + LOCATIONS[scenario],
+                        1, cursor.getCount());
+                cursor.moveToFirst();
+                lastTelemetryId = cursor.getLong(0);
+                int outcome = cursor.getInt(1);
+                assertEquals("Unexpected outcome for " + LOCATIONS[scenario],
+                        EXPECTED_OUTCOMES[scenario], outcome);
+                outcomeCounts[outcome]++;
+                totalMillis += cursor.getLong(2);
+            } finally {
+                cursor.close();
+            }
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        JSONObject summary = new JSONObject();
+        summary.put("name", "sync load");
+        summary.put("syncs", SYNC_COUNT);
+        summary.put("syncs_per_second", SYNC_COUNT / elapsedSeconds);
+        summary.put("mean_sync_ms", totalMillis / (double) SYNC_COUNT);
+        for (int i = 0; i < OUTCOME_NAMES.length; i++) {
+            summary.put(OUTCOME_NAMES[i], outcomeCounts[i]);
+        }
+        Log.i(BenchmarkRunner.LOG_TAG, "sync_load " + summary);
+    }
+
+    private long getLastTelemetryId() {
+        Cursor cursor = mContext.getContentResolver().query(SyncTelemetryEntry.CONTENT_URI,
+                new String[]{SyncTelemetryEntry._ID}, null, null,
+                SyncTelemetryEntry._ID + " DESC");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
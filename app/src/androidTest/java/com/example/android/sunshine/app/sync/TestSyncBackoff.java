@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Exercises the SyncBackoff with a fake clock and a seeded random, so that no real time has to
+    pass and the jitter is the same on every run.
+ */
+public class TestSyncBackoff extends AndroidTestCase {
+    private static final String PREFS_NAME = "test_sync_backoff";
+    private static final String HOST = "api.openweathermap.org";
+    private static final String OTHER_HOST = "10.0.2.2:8080";
+
+    private TestSyncPolicy.FakeClock mClock;
+    private SyncBackoff mBackoff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        mClock = new TestSyncPolicy.FakeClock();
+        mBackoff = new SyncBackoff(prefs, mClock, new Random(42));
+    }
+
+    public void testDelayGrowsWithJitterAndIsCapped() {
+        for (int failures = 1; failures <= 10; failures++) {
+            long full = Math.min(SyncBackoff.BASE_DELAY_MILLIS << (failures - 1),
+                    SyncBackoff.MAX_DELAY_MILLIS);
+            for (int i = 0; i < 20; i++) {
+                long delay = mBackoff.getDelayMillis(failures);
+                assertTrue("Error: the delay should be at least half of " + full + " but was " +
+                        delay, delay >= full / 2);
+                assertTrue("Error: the delay should be at most " + full + " but was " + delay,
+                        delay <= full);
+            }
+        }
+        assertTrue("Error: the delay should stay capped after many failures",
+                mBackoff.getDelayMillis(1000) <= SyncBackoff.MAX_DELAY_MILLIS);
+    }
+
+    public void testCircuitOpensAfterRepeatedFailures() {
+        for (int i = 1; i < SyncBackoff.FAILURE_THRESHOLD; i++) {
+            mBackoff.onFailure(HOST, 0);
+            assertEquals("Error: the circuit should stay closed after " + i + " failure(s)",
+                    0, mBackoff.getBlockedMillis(HOST));
+        }
+        long delay = mBackoff.onFailure(HOST, 0);
+        assertEquals("Error: the circuit should open after " + SyncBackoff.FAILURE_THRESHOLD +
+                " failures", delay, mBackoff.getBlockedMillis(HOST));
+        assertEquals("Error: other hosts should not be blocked",
+                0, mBackoff.getBlockedMillis(OTHER_HOST));
+
+        mClock.now += delay - 1;
+        assertEquals("Error: the circuit should stay open until the delay has passed",
+                1, mBackoff.getBlockedMillis(HOST));
+        mClock.now += 1;
+        assertEquals("Error: the trial request should be let through",
+                0, mBackoff.getBlockedMillis(HOST));
+
+        long nextDelay = mBackoff.onFailure(HOST, 0);
+        assertTrue("Error: a failed trial should open the circuit again",
+                mBackoff.getBlockedMillis(HOST) > 0);
+        assertTrue("Error: a failed trial should wait at least as long as the delay before",
+                nextDelay >= SyncBackoff.BASE_DELAY_MILLIS << (SyncBackoff.FAILURE_THRESHOLD - 1));
+
+        mClock.now += nextDelay;
+        mBackoff.onSuccess(HOST);
+        mBackoff.onFailure(HOST, 0);
+        assertEquals("Error: a success should close the circuit and start over",
+                0, mBackoff.getBlockedMillis(HOST));
+    }
+
+    public void testRetryAfterIsHonoredAndCapped() {
+        long hour = 1000 * 60 * 60;
+        assertEquals("Error: a Retry-After longer than the backoff should win",
+                hour, mBackoff.onFailure(HOST, hour));
+        assertEquals("Error: a Retry-After should be capped",
+                SyncBackoff.MAX_RETRY_AFTER_MILLIS, mBackoff.onFailure(HOST, 100 * hour));
+    }
+
+    public void testStateIsPersisted() {
+        for (int i = 0; i < SyncBackoff.FAILURE_THRESHOLD; i++) {
+            mBackoff.onFailure(HOST, 0);
+        }
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        SyncBackoff restarted = new SyncBackoff(prefs, mClock, new Random(7));
+        assertTrue("Error: an open circuit should survive a restart",
+                restarted.getBlockedMillis(HOST) > 0);
+
+        restarted.reset();
+        assertEquals("Error: reset should close every circuit",
+                0, restarted.getBlockedMillis(HOST));
+    }
+
+    public void testParseRetryAfter() {
+        long now = mClock.now;
+        assertEquals("Error: no header should mean no delay",
+                0, SyncBackoff.parseRetryAfterMillis(null, now));
+        assertEquals("Error: a number should be read as seconds",
+                120 * 1000, SyncBackoff.parseRetryAfterMillis(" 120 ", now));
+        assertEquals("Error: a huge number of seconds should be clamped, not overflow",
+                SyncBackoff.MAX_RETRY_AFTER_MILLIS,
+                SyncBackoff.parseRetryAfterMillis("9223372036854775807", now));
+        // December 20th, 2014, 00:02:00 GMT
+        assertEquals("Error: a date should be read as the time left until then",
+                120 * 1000,
+                SyncBackoff.parseRetryAfterMillis("Sat, 20 Dec 2014 00:02:00 GMT", now));
+        assertEquals("Error: a date in the past should mean no delay",
+                0, SyncBackoff.parseRetryAfterMillis("Fri, 19 Dec 2014 23:00:00 GMT", now));
+        assertEquals("Error: garbage should mean no delay",
+                0, SyncBackoff.parseRetryAfterMillis("soon", now));
+    }
+}
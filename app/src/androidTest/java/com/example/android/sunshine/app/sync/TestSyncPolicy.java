@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+/*
+    Exercises the SyncPolicy with a fake clock and fake device state, so that no real time has
+    to pass and no network or battery conditions have to be set up on the device.
+ */
+public class TestSyncPolicy extends AndroidTestCase {
+    private static final String PREFS_NAME = "test_sync_policy";
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    private static final int[] CLEAR_WEEK = {800, 800, 801, 802, 800, 800, 800};
+    private static final int[] STORMY_WEEK = {800, 211, 801, 802, 800, 800, 800};
+
+    private FakeClock mClock;
+    private FakeDeviceState mDeviceState;
+    private SyncPolicy mPolicy;
+
+    static class FakeClock implements SyncPolicy.Clock {
+        long now = 1419033600000L;  // December 20th, 2014
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    static class FakeDeviceState implements SyncPolicy.DeviceState {
+        boolean metered;
+        boolean batteryLow;
+
+        @Override
+        public boolean isMetered() {
+            return metered;
+        }
+
+        @Override
+        public boolean isBatteryLow() {
+            return batteryLow;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        mClock = new FakeClock();
+        mDeviceState = new FakeDeviceState();
+        mPolicy = new SyncPolicy(prefs, mClock, mDeviceState);
+    }
+
+    public void testIntervalStretchesWhileForecastIsUnchanged() {
+        assertEquals("Error: a new forecast should use the default interval",
+                SunshineSyncAdapter.SYNC_INTERVAL, mPolicy.onSyncSucceeded(42, CLEAR_WEEK));
+
+        mClock.now += 3 * HOUR_IN_MILLIS;
+        assertEquals("Error: an unchanged forecast should double the interval",
+                SunshineSyncAdapter.SYNC_INTERVAL * 2, mPolicy.onSyncSucceeded(42, CLEAR_WEEK));
+
+        mClock.now += 6 * HOUR_IN_MILLIS;
+        assertEquals("Error: the interval should keep stretching while the user is idle",
+                SunshineSyncAdapter.SYNC_INTERVAL * 4, mPolicy.onSyncSucceeded(42, CLEAR_WEEK));
+
+        mClock.now += 12 * HOUR_IN_MILLIS;
+        assertEquals("Error: the interval should not stretch beyond the maximum",
+                SunshineSyncAdapter.SYNC_INTERVAL * 4, mPolicy.onSyncSucceeded(42, CLEAR_WEEK));
+
+        mClock.now += 12 * HOUR_IN_MILLIS;
+        assertEquals("Error: a changed forecast should reset the interval",
+                SunshineSyncAdapter.SYNC_INTERVAL, mPolicy.onSyncSucceeded(43, CLEAR_WEEK));
+    }
+
+    public void testActiveUserLimitsStretching() {
+        mPolicy.onUserActive();
+        mPolicy.onSyncSucceeded(42, CLEAR_WEEK);
+        mPolicy.onSyncSucceeded(42, CLEAR_WEEK);
+        assertEquals("Error: an active user should cap the stretched interval",
+                SunshineSyncAdapter.SYNC_INTERVAL * 2, mPolicy.onSyncSucceeded(42, CLEAR_WEEK));
+    }
+
+    public void testSevereWeatherShortensInterval() {
+        mPolicy.onSyncSucceeded(42, STORMY_WEEK);
+        assertEquals("Error: severe weather should shorten the interval even if unchanged",
+                SyncPolicy.SEVERE_WEATHER_INTERVAL, mPolicy.onSyncSucceeded(42, STORMY_WEEK));
+
+        int[] lateStorm = {800, 800, 800, 211};
+        assertEquals("Error: severe weather beyond the lookahead should be ignored",
+                SunshineSyncAdapter.SYNC_INTERVAL, mPolicy.onSyncSucceeded(7, lateStorm));
+    }
+
+    public void testDeferralOnMeteredAndLowBattery() {
+        mPolicy.onSyncSucceeded(42, CLEAR_WEEK);
+        assertEquals("Error: sync should not be deferred on an unmetered network",
+                0, mPolicy.getDeferralSeconds(false));
+
+        mDeviceState.metered = true;
+        assertEquals("Error: periodic sync should be deferred on a metered network",
+                SyncPolicy.DEFER_SECONDS, mPolicy.getDeferralSeconds(false));
+        assertEquals("Error: manual sync should never be deferred",
+                0, mPolicy.getDeferralSeconds(true));
+
+        mDeviceState.metered = false;
+        mDeviceState.batteryLow = true;
+        assertEquals("Error: periodic sync should be deferred on low battery",
+                SyncPolicy.DEFER_SECONDS, mPolicy.getDeferralSeconds(false));
+
+        mClock.now += SyncPolicy.MAX_STALENESS_MILLIS;
+        assertEquals("Error: stale data should never be deferred",
+                0, mPolicy.getDeferralSeconds(false));
+    }
+
+    public void testDecisionsAreRecorded() {
+        mPolicy.onSyncSucceeded(42, CLEAR_WEEK);
+        mPolicy.onSyncSucceeded(42, CLEAR_WEEK);
+        assertEquals("Error: each decision should be recorded", 2, mPolicy.getDecisions().size());
+
+        for (int i = 0; i < SyncPolicy.MAX_DECISIONS * 2; i++) {
+            mPolicy.onSyncSucceeded(i, CLEAR_WEEK);
+        }
+        assertEquals("Error: the decision log should be bounded",
+                SyncPolicy.MAX_DECISIONS, mPolicy.getDecisions().size());
+    }
+
+    public void testDecisionsSurviveTheProcess() {
+        mPolicy.onSyncSucceeded(42, STORMY_WEEK);
+
+        SyncPolicy restarted = new SyncPolicy(
+                mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), mClock,
+                mDeviceState);
+        assertEquals("Error: the decisions should be read back from the preferences",
+                1, restarted.getDecisions().size());
+        SyncPolicy.Decision decision = restarted.getDecisions().get(0);
+        assertEquals(mClock.now, decision.timeMillis);
+        assertEquals("schedule", decision.action);
+        assertEquals(SyncPolicy.SEVERE_WEATHER_INTERVAL, decision.intervalSeconds);
+    }
+}
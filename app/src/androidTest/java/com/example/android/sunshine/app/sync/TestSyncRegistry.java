@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Exercises the SyncRegistry with a fake clock, walking through the requests, starts and ends
+    of syncs the way SunshineSyncAdapter reports them.
+ */
+public class TestSyncRegistry extends AndroidTestCase {
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "London, UK";
+
+    private TestSyncPolicy.FakeClock mClock;
+    private SyncRegistry mRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new TestSyncPolicy.FakeClock();
+        mRegistry = new SyncRegistry(mClock);
+    }
+
+    public void testRequestsForTheSameLocationAreMerged() {
+        assertEquals("Error: the first request should start a sync",
+                SyncRegistry.ACTION_REQUEST, mRegistry.onSyncRequested(LOCATION));
+        assertEquals("Error: a request while the sync is pending should be merged",
+                SyncRegistry.ACTION_MERGE, mRegistry.onSyncRequested(LOCATION));
+
+        mRegistry.onSyncStarted(LOCATION);
+        assertEquals("Error: a request while the sync is running should be merged",
+                SyncRegistry.ACTION_MERGE, mRegistry.onSyncRequested(LOCATION));
+        assertFalse("Error: merged requests should not supersede the sync",
+                mRegistry.isSuperseded(LOCATION));
+    }
+
+    public void testRequestAfterFinishedSyncStartsAnother() {
+        mRegistry.onSyncRequested(LOCATION);
+        mRegistry.onSyncStarted(LOCATION);
+        // e.g. a network error, the registry doesn't care how the sync ended
+        mRegistry.onSyncFinished(LOCATION);
+
+        mClock.now += 1000;
+        assertEquals("Error: a retry right after a finished sync should start a new one",
+                SyncRegistry.ACTION_REQUEST, mRegistry.onSyncRequested(LOCATION));
+    }
+
+    public void testNewLocationSupersedesRunningSync() {
+        mRegistry.onSyncRequested(LOCATION);
+        mRegistry.onSyncStarted(LOCATION);
+
+        assertEquals("Error: a new location should cancel the running sync",
+                SyncRegistry.ACTION_CANCEL_AND_REQUEST,
+                mRegistry.onSyncRequested(OTHER_LOCATION));
+        assertTrue("Error: the cancelled sync should not publish its result",
+                mRegistry.isSuperseded(LOCATION));
+        assertFalse("Error: the new location should publish its result",
+                mRegistry.isSuperseded(OTHER_LOCATION));
+
+        mRegistry.onSyncFinished(LOCATION);
+        assertEquals("Error: the sync for the new location should still be pending",
+                SyncRegistry.ACTION_MERGE, mRegistry.onSyncRequested(OTHER_LOCATION));
+    }
+
+    public void testPendingSyncServesNewLocation() {
+        mRegistry.onSyncRequested(LOCATION);
+        assertEquals("Error: a pending sync reads the location when it starts, so it should " +
+                        "serve a new location",
+                SyncRegistry.ACTION_MERGE, mRegistry.onSyncRequested(OTHER_LOCATION));
+        assertTrue("Error: only the latest location should publish its result",
+                mRegistry.isSuperseded(LOCATION));
+
+        mRegistry.onSyncStarted(OTHER_LOCATION);
+        mRegistry.onSyncFinished(OTHER_LOCATION);
+        assertEquals("Error: nothing should be pending once the sync has run",
+                SyncRegistry.ACTION_REQUEST, mRegistry.onSyncRequested(OTHER_LOCATION));
+    }
+
+    public void testDroppedPendingSyncExpires() {
+        mRegistry.onSyncRequested(LOCATION);
+        mClock.now += SyncRegistry.PENDING_TIMEOUT_MILLIS + 1;
+        assertEquals("Error: a request the framework never started should stop absorbing " +
+                        "new ones",
+                SyncRegistry.ACTION_REQUEST, mRegistry.onSyncRequested(LOCATION));
+    }
+}
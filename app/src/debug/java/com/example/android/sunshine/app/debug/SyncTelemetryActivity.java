@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.debug;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v4.widget.ResourceCursorAdapter;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTelemetryEntry;
+
+/**
+ * Lists the most recent syncs with the time they spent in each phase, newest first.  Only part
+ * of debug builds.
+ */
+public class SyncTelemetryActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    private static final int TELEMETRY_LOADER = 0;
+
+    private static final String[] TELEMETRY_COLUMNS = {
+            SyncTelemetryEntry._ID,
+            SyncTelemetryEntry.COLUMN_START_TIME,
+            SyncTelemetryEntry.COLUMN_LOCATION_SETTING,
+            SyncTelemetryEntry.COLUMN_PREFERRED,
+            SyncTelemetryEntry.COLUMN_MANUAL,
+            SyncTelemetryEntry.COLUMN_OUTCOME,
+            SyncTelemetryEntry.COLUMN_TOTAL_MILLIS,
+            SyncTelemetryEntry.COLUMN_CONNECT_MILLIS,
+            SyncTelemetryEntry.COLUMN_DOWNLOAD_MILLIS,
+            SyncTelemetryEntry.COLUMN_BYTES,
+            SyncTelemetryEntry.COLUMN_PARSE_MILLIS,
+            SyncTelemetryEntry.COLUMN_WRITE_MILLIS,
+            SyncTelemetryEntry.COLUMN_ROWS,
+            SyncTelemetryEntry.COLUMN_FANOUT_MILLIS
+    };
+
+    // These indices are tied to TELEMETRY_COLUMNS.  If TELEMETRY_COLUMNS changes, these
+    // must change.
+    static final int COL_START_TIME = 1;
+    static final int COL_LOCATION_SETTING = 2;
+    static final int COL_PREFERRED = 3;
+    static final int COL_MANUAL = 4;
+    static final int COL_OUTCOME = 5;
+    static final int COL_TOTAL_MILLIS = 6;
+    static final int COL_CONNECT_MILLIS = 7;
+    static final int COL_DOWNLOAD_MILLIS = 8;
+    static final int COL_BYTES = 9;
+    static final int COL_PARSE_MILLIS = 10;
+    static final int COL_WRITE_MILLIS = 11;
+    static final int COL_ROWS = 12;
+    static final int COL_FANOUT_MILLIS = 13;
+
+    // Indexed by SunshineSyncAdapter.LocationStatus
+    private static final String[] OUTCOMES = {
+            "ok", "server down", "server invalid", "unknown", "invalid location"
+    };
+
+    private TelemetryAdapter mAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        ListView listView = new ListView(this);
+        TextView emptyView = new TextView(this);
+        emptyView.setText(R.string.sync_telemetry_empty);
+        setContentView(listView);
+        listView.setEmptyView(emptyView);
+
+        mAdapter = new TelemetryAdapter(this);
+        listView.setAdapter(mAdapter);
+        getSupportLoaderManager().initLoader(TELEMETRY_LOADER, null, this);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new CursorLoader(this,
+                SyncTelemetryEntry.CONTENT_URI,
+                TELEMETRY_COLUMNS,
+                null,
+                null,
+                SyncTelemetryEntry._ID + " DESC");
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mAdapter.swapCursor(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mAdapter.swapCursor(null);
+    }
+
+    private static class TelemetryAdapter extends ResourceCursorAdapter {
+        TelemetryAdapter(Context context) {
+            super(context, android.R.layout.simple_list_item_2, null, 0);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            String location = cursor.getString(COL_LOCATION_SETTING);
+            if (cursor.getInt(COL_PREFERRED) == 0) {
+                location += " (prefetch)";
+            } else if (cursor.getInt(COL_MANUAL) != 0) {
+                location += " (manual)";
+            }
+            int outcome = cursor.getInt(COL_OUTCOME);
+            String time = DateUtils.formatDateTime(context, cursor.getLong(COL_START_TIME),
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME
+                            | DateUtils.FORMAT_NUMERIC_DATE);
+
+            ((TextView) view.findViewById(android.R.id.text1)).setText(context.getString(
+                    R.string.format_sync_telemetry_summary, time, location,
+                    outcome >= 0 && outcome < OUTCOMES.length ? OUTCOMES[outcome] : "?",
+                    cursor.getLong(COL_TOTAL_MILLIS)));
+            ((TextView) view.findViewById(android.R.id.text2)).setText(context.getString(
+                    R.string.format_sync_telemetry_phases,
+                    cursor.getLong(COL_CONNECT_MILLIS),
+                    cursor.getLong(COL_DOWNLOAD_MILLIS),
+                    cursor.getLong(COL_BYTES),
+                    cursor.getLong(COL_PARSE_MILLIS),
+                    cursor.getLong(COL_WRITE_MILLIS),
+                    cursor.getInt(COL_ROWS),
+                    cursor.getLong(COL_FANOUT_MILLIS)));
+        }
+    }
+}
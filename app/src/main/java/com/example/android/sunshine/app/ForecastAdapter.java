@@ -22,14 +22,13 @@ import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Checkable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.art.WeatherArtCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
@@ -38,14 +37,18 @@ import com.example.android.sunshine.app.data.WeatherContract;
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
-    private static final int VIEW_TYPE_TODAY = 0;
-    private static final int VIEW_TYPE_FUTURE_DAY = 1;
+    static final int VIEW_TYPE_TODAY = 0;
+    static final int VIEW_TYPE_FUTURE_DAY = 1;
 
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
     final private Context mContext;
+    final private ForecastViewPool mViewPool;
+    final private WeatherArtCache mArtCache;
+    final private int mListIconSize;
+    final private int mTodayIconSize;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
@@ -84,8 +87,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         void onClick(Long date, ForecastAdapterViewHolder vh);
     }
 
-    public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
+    public ForecastAdapter(Context context, ForecastViewPool viewPool, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
+        mViewPool = viewPool;
+        mArtCache = WeatherArtCache.getInstance(context);
+        mListIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        mTodayIconSize = context.getResources().getDimensionPixelSize(R.dimen.today_icon);
         mClickHandler = dh;
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
@@ -114,7 +121,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
                     break;
                 }
             }
-            View view = LayoutInflater.from(viewGroup.getContext()).inflate(layoutId, viewGroup, false);
+            // Usually one of the items inflated while the app was starting
+            View view = mViewPool.inflate(layoutId, viewGroup);
             view.setFocusable(true);
             return new ForecastAdapterViewHolder(view);
         } else {
@@ -124,30 +132,28 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
+        StartupTrace.mark(StartupTrace.MARK_FIRST_BIND);
         mCursor.moveToPosition(position);
         int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
         int defaultImage;
+        int iconSize;
         boolean useLongToday;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
                 defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
+                iconSize = mTodayIconSize;
                 useLongToday = true;
                 break;
             default:
                 defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
+                iconSize = mListIconSize;
                 useLongToday = false;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
-            forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
-        } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
-                    .error(defaultImage)
-                    .crossFade()
-                    .into(forecastAdapterViewHolder.mIconView);
-        }
+        // Downloaded art only comes from the cache, so scrolling never waits for the network
+        mArtCache.loadInto(forecastAdapterViewHolder.mIconView, weatherId, iconSize,
+                defaultImage);
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
@@ -218,6 +224,22 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /*
+        Swaps in a cursor holding the same, unchanged days as the current one followed by the
+        next page, so only the new days are bound instead of the whole list.
+     */
+    public void swapCursorForNextPage(Cursor newCursor) {
+        int oldCount = getItemCount();
+        mCursor = newCursor;
+        int newCount = getItemCount();
+        if (newCount >= oldCount) {
+            notifyItemRangeInserted(oldCount, newCount - oldCount);
+        } else {
+            notifyDataSetChanged();
+        }
+        mEmptyView.setVisibility(newCount == 0 ? View.VISIBLE : View.GONE);
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
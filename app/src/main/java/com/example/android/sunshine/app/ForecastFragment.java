@@ -21,11 +21,13 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -48,6 +50,8 @@ import android.widget.TextView;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.ArrayList;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
@@ -59,8 +63,26 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Set while the initially selected date is past the days loaded so far
+    private boolean mSelectionPending;
+    // Set when the location changes, so the next load can tell the user it's showing saved data
+    private boolean mCheckStale;
+    private Snackbar mStaleSnackbar;
 
     private static final String SELECTED_KEY = "selected_position";
+    private static final String PAGE_KEYS_KEY = "page_keys";
+
+    // The forecast is loaded a page of days at a time, so the first frame only waits for the
+    // days that fit on screen however much is stored.  The next page is requested once the
+    // list shows a day within PREFETCH_DISTANCE days of the end of what is loaded.  Each page has
+    // its own loader, FORECAST_LOADER plus the page number, which reads the days after the last
+    // date of the page before it, its key.  The pages are shown together through a MergeCursor.
+    private static final int PAGE_SIZE = 7;
+    private static final int PREFETCH_DISTANCE = 3;
+    // The key of every page after the first, so mPageKeys.get(0) is the key of page 1
+    private final ArrayList<Long> mPageKeys = new ArrayList<Long>();
+    // The cursor of every page, null until its loader has delivered
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
 
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
@@ -105,6 +127,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
          * DetailFragmentCallback for when an item has been selected.
          */
         public void onItemSelected(Uri dateUri, ForecastAdapter.ForecastAdapterViewHolder vh);
+
+        /**
+         * The items and recycled holders for the forecast list, see {@link ForecastViewPool}.
+         */
+        public ForecastViewPool getForecastViewPool();
     }
 
     public ForecastFragment() {
@@ -183,9 +210,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // in content do not change the layout size of the RecyclerView
         mRecyclerView.setHasFixedSize(true);
 
+        ForecastViewPool viewPool = ((Callback) getActivity()).getForecastViewPool();
+        mRecyclerView.setRecycledViewPool(viewPool.getRecycledViewPool());
+
         // The ForecastAdapter will take data from a source and
         // use it to populate the RecyclerView it's attached to.
-        mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.ForecastAdapterOnClickHandler() {
+        mForecastAdapter = new ForecastAdapter(getActivity(), viewPool, new ForecastAdapter.ForecastAdapterOnClickHandler() {
             @Override
             public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
                 String locationSetting = Utility.getPreferredLocation(getActivity());
@@ -200,6 +230,24 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    loadNextPageIfNeeded();
+                }
+            }
+        });
+        // A list that shows every day loaded so far without being scrolled needs the next page
+        // too, so the same check runs after every layout
+        mRecyclerView.getViewTreeObserver().addOnGlobalLayoutListener(
+                new ViewTreeObserver.OnGlobalLayoutListener() {
+                    @Override
+                    public void onGlobalLayout() {
+                        loadNextPageIfNeeded();
+                    }
+                });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -244,6 +292,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // actually *lost*.
         if (savedInstanceState != null) {
             mForecastAdapter.onRestoreInstanceState(savedInstanceState);
+            // keep the pages the user had scrolled to, so the selection can be restored
+            long[] pageKeys = savedInstanceState.getLongArray(PAGE_KEYS_KEY);
+            if (pageKeys != null) {
+                for (long key : pageKeys) {
+                    mPageKeys.add(key);
+                }
+            }
         }
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
@@ -259,12 +314,20 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
-        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        mPages.clear();
+        for (int page = 0; page <= mPageKeys.size(); page++) {
+            mPages.add(null);
+            getLoaderManager().initLoader(FORECAST_LOADER + page, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
     // since we read the location when we create the loader, all we need to do is restart things
+    // Any forecast already in the database for the new location is shown right away, while the
+    // sync started by the settings screen refreshes it in the background.
     void onLocationChanged() {
+        mCheckStale = true;
+        dropPagesFrom(1);
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
@@ -297,14 +360,23 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onSaveInstanceState(Bundle outState) {
         // When tablets rotate, the currently selected list item needs to be saved.
         mForecastAdapter.onSaveInstanceState(outState);
+        long[] pageKeys = new long[mPageKeys.size()];
+        for (int i = 0; i < pageKeys.length; i++) {
+            pageKeys[i] = mPageKeys.get(i);
+        }
+        outState.putLongArray(PAGE_KEYS_KEY, pageKeys);
         super.onSaveInstanceState(outState);
     }
 
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
+        int page = i - FORECAST_LOADER;
+        if (page == 0) {
+            StartupTrace.mark(StartupTrace.MARK_LOADER_CREATED);
+        }
+        // This is called when a new Loader needs to be created.  The id tells which page of
+        // the forecast it loads.
 
         // To only show current and future dates, filter the query to return weather only for
         // dates after or including today.
@@ -313,8 +385,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri = page == 0
+                ? WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis(), PAGE_SIZE)
+                : WeatherContract.WeatherEntry.buildWeatherLocationAfterDate(
+                        locationSetting, mPageKeys.get(page - 1), PAGE_SIZE);
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
@@ -326,8 +401,59 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+        int page = loader.getId() - FORECAST_LOADER;
+        if (page >= mPages.size()) {
+            // A page dropped while its load was under way
+            return;
+        }
+        if (page == 0 && data.getCount() > 0) {
+            StartupTrace.mark(StartupTrace.MARK_LOAD_FINISHED);
+        }
+        // A page loaded for the first time after every page before it only adds days at the
+        // end.  Anything else, such as a sync landing and reloading the pages, may change the
+        // days already shown.
+        boolean appended = page > 0 && mPages.get(page) == null
+                && getLoadedPageCount() == page;
+        mPages.set(page, data);
+        // A later page only follows on if its key is still the last day of the page before
+        if (dropStalePages()) {
+            appended = false;
+        }
+        Cursor days = mergeLoadedPages();
+        if (appended) {
+            mForecastAdapter.swapCursorForNextPage(days);
+        } else {
+            mForecastAdapter.swapCursor(days);
+        }
+        // The new days may still fit on screen; checked once this has been handled
+        mRecyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                loadNextPageIfNeeded();
+            }
+        });
+        if (page > 0) {
+            // a new page leaves the list where the user scrolled to, unless it was waiting for
+            // the initially selected date
+            if (mSelectionPending) {
+                mRecyclerView.getViewTreeObserver().addOnPreDrawListener(
+                        new ViewTreeObserver.OnPreDrawListener() {
+                            @Override
+                            public boolean onPreDraw() {
+                                mRecyclerView.getViewTreeObserver()
+                                        .removeOnPreDrawListener(this);
+                                mSelectionPending = !scrollToSelection();
+                                return true;
+                            }
+                        });
+            }
+            return;
+        }
         updateEmptyView();
+        if (mCheckStale) {
+            mCheckStale = false;
+            updateStaleNotice();
+        }
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
@@ -338,28 +464,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     // we see Children.
                     if (mRecyclerView.getChildCount() > 0) {
                         mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
-                        int position = mForecastAdapter.getSelectedItemPosition();
-                        if (position == RecyclerView.NO_POSITION &&
-                                -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
-                        }
-                        if (position == RecyclerView.NO_POSITION) position = 0;
-                        // If we don't need to restart the loader, and there's a desired position to restore
-                        // to, do so now.
-                        mRecyclerView.smoothScrollToPosition(position);
-                        RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
-                        if (null != vh && mAutoSelectView) {
-                            mForecastAdapter.selectView(vh);
-                        }
+                        StartupTrace.onForecastDrawn(getActivity());
+                        // If the initially selected date hasn't been loaded yet, the pages are
+                        // loaded up to it and the selection waits for them
+                        mSelectionPending = !scrollToSelection();
                         if ( mHoldForTransition ) {
                             getActivity().supportStartPostponedEnterTransition();
                         }
@@ -374,6 +482,139 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
 
+    /*
+        Scrolls to the selected day, or else the initially selected date, or else the first day,
+        and selects it if the view auto-selects.
+
+        @return false if nothing was done because the initially selected date is past the days
+        loaded so far, and there may be more
+     */
+    private boolean scrollToSelection() {
+        int position = mForecastAdapter.getSelectedItemPosition();
+        if (position == RecyclerView.NO_POSITION &&
+                -1 != mInitialSelectedDate) {
+            Cursor data = mForecastAdapter.getCursor();
+            int count = data.getCount();
+            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            for ( int i = 0; i < count; i++ ) {
+                data.moveToPosition(i);
+                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
+                    position = i;
+                    break;
+                }
+            }
+            if (position == RecyclerView.NO_POSITION && data.moveToLast()
+                    && data.getLong(dateColumn) < mInitialSelectedDate && mayHaveMorePages()) {
+                return false;
+            }
+        }
+        if (position == RecyclerView.NO_POSITION) position = 0;
+        // If we don't need to restart the loader, and there's a desired position to restore
+        // to, do so now.
+        mRecyclerView.smoothScrollToPosition(position);
+        RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
+        if (null != vh && mAutoSelectView) {
+            mForecastAdapter.selectView(vh);
+        }
+        return true;
+    }
+
+    /*
+        Loads the next page if the list shows a day within PREFETCH_DISTANCE days of the end of
+        what is loaded, or the initially selected date is waiting for it.
+     */
+    private void loadNextPageIfNeeded() {
+        LinearLayoutManager layoutManager =
+                (LinearLayoutManager) mRecyclerView.getLayoutManager();
+        if (mSelectionPending || layoutManager.findLastVisibleItemPosition() + PREFETCH_DISTANCE
+                >= mForecastAdapter.getItemCount()) {
+            loadNextPage();
+        }
+    }
+
+    /*
+        @return true if a page is still loading, or the last one loaded was full, so there may be
+        more days after it
+     */
+    private boolean mayHaveMorePages() {
+        int count = getLoadedPageCount();
+        return count < mPages.size()
+                || (count > 0 && mPages.get(count - 1).getCount() >= PAGE_SIZE);
+    }
+
+    /*
+        Starts loading the page after the last one, if every page so far has been loaded and the
+        last one was full, so there may be more days after it.
+     */
+    private void loadNextPage() {
+        int count = getLoadedPageCount();
+        if (count == 0 || count < mPages.size()) {
+            // still loading
+            return;
+        }
+        Cursor last = mPages.get(count - 1);
+        if (last.getCount() < PAGE_SIZE || !last.moveToLast()) {
+            return;
+        }
+        mPageKeys.add(last.getLong(COL_WEATHER_DATE));
+        mPages.add(null);
+        getLoaderManager().initLoader(FORECAST_LOADER + count, null, this);
+    }
+
+    /*
+        Drops the pages from the first one whose key no longer matches the last day of the page
+        before it, which happens when the days of an earlier page changed.  They are loaded again
+        from the new keys as the list needs them.
+
+        @return true if any page was dropped
+     */
+    private boolean dropStalePages() {
+        for (int page = 1; page < mPages.size(); page++) {
+            Cursor previous = mPages.get(page - 1);
+            if (previous == null) {
+                // still loading, checked again once it arrives
+                continue;
+            }
+            if (previous.getCount() < PAGE_SIZE || !previous.moveToLast()
+                    || previous.getLong(COL_WEATHER_DATE) != mPageKeys.get(page - 1)) {
+                dropPagesFrom(page);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dropPagesFrom(int firstPage) {
+        for (int page = mPages.size() - 1; page >= firstPage; page--) {
+            getLoaderManager().destroyLoader(FORECAST_LOADER + page);
+            mPages.remove(page);
+            mPageKeys.remove(page - 1);
+        }
+    }
+
+    /*
+        @return the number of pages loaded before the first one still loading
+     */
+    private int getLoadedPageCount() {
+        int count = 0;
+        while (count < mPages.size() && mPages.get(count) != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /*
+        @return the days of the pages loaded so far, in order, or null if the first page hasn't
+        been loaded
+     */
+    private Cursor mergeLoadedPages() {
+        int count = getLoadedPageCount();
+        if (count <= 1) {
+            return count == 0 ? null : mPages.get(0);
+        }
+        return new MergeCursor(mPages.subList(0, count).toArray(new Cursor[count]));
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -384,7 +625,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+        int page = loader.getId() - FORECAST_LOADER;
+        // The cursor is about to be closed, so the adapter has to let go of it
+        if (page < mPages.size()) {
+            mPages.set(page, null);
+        }
+        mForecastAdapter.swapCursor(mergeLoadedPages());
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -429,10 +675,30 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
+    /*
+        Lets the user know that the forecast on screen came from the database and is still being
+        refreshed, and takes the notice away once the sync for the location has finished.
+     */
+    private void updateStaleNotice() {
+        boolean syncing = Utility.getLocationStatus(getActivity())
+                == SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        if (syncing && mForecastAdapter.getItemCount() > 0) {
+            if (mStaleSnackbar == null && null != getView()) {
+                mStaleSnackbar = Snackbar.make(getView(), R.string.forecast_list_stale,
+                        Snackbar.LENGTH_LONG);
+                mStaleSnackbar.show();
+            }
+        } else if (mStaleSnackbar != null) {
+            mStaleSnackbar.dismiss();
+            mStaleSnackbar = null;
+        }
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_status_key))) {
             updateEmptyView();
+            updateStaleNotice();
         }
     }
 }
\ No newline at end of file
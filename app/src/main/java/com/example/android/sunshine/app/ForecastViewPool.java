@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Keeps the holders the forecast list recycles, and fills it up for the first scroll.
+ * <p/>
+ * {@link MainActivity} creates one before it inflates its own layout, and once the first frame
+ * has been drawn, {@link #prefill(RecyclerView)} creates the holders the first scroll will
+ * bind, so that the scroll doesn't have to inflate them while it animates.  They are created
+ * on the UI thread through the list's adapter, one per message so that no frame waits for more
+ * than one, and go into the recycled view pool like holders that scrolled off screen.
+ * <p/>
+ * There is one per activity rather than one per process: the items hold on to the activity and
+ * to resources picked for its configuration, so a switch between the one and two pane layouts
+ * has to start over anyway.
+ */
+public class ForecastViewPool {
+    private static final String LOG_TAG = ForecastViewPool.class.getSimpleName();
+
+    // Rows past the first screen to have ready for the first scroll
+    private static final int EXTRA_ROWS = 3;
+    // In case the item height resolves to something unexpectedly small
+    private static final int MAX_ROWS_PER_SCREEN = 24;
+    private static final int DEFAULT_ROWS_PER_SCREEN = 8;
+
+    // Cleared by ForecastScrollBenchmark, to compare against inflating every item on demand
+    static boolean sPrefillEnabled = true;
+
+    private final int mRowsPerScreen;
+    private final RecyclerView.RecycledViewPool mRecycledViewPool =
+            new RecyclerView.RecycledViewPool();
+    private boolean mPrefillStarted;
+    private boolean mPrefilling;
+    private int mPrefilled;
+    private int mInflatedOnDemand;
+    private boolean mReleased;
+
+    ForecastViewPool(Activity activity) {
+        mRowsPerScreen = getRowsPerScreen(activity);
+
+        // The default of five holders per view type is less than a screen of rows, so every
+        // swapCursor, which sends all the attached holders to the pool, used to cost the rows
+        // that didn't fit a fresh inflation
+        mRecycledViewPool.setMaxRecycledViews(ForecastAdapter.VIEW_TYPE_TODAY, 1);
+        mRecycledViewPool.setMaxRecycledViews(ForecastAdapter.VIEW_TYPE_FUTURE_DAY,
+                mRowsPerScreen + EXTRA_ROWS);
+    }
+
+    private static int getRowsPerScreen(Activity activity) {
+        TypedValue value = new TypedValue();
+        if (!activity.getTheme().resolveAttribute(android.R.attr.listPreferredItemHeight, value,
+                true)) {
+            return DEFAULT_ROWS_PER_SCREEN;
+        }
+        // The preferred height is the rows' minimum, so this errs on the side of too many
+        int rowHeight = (int) value.getDimension(activity.getResources().getDisplayMetrics());
+        if (rowHeight <= 0) {
+            return DEFAULT_ROWS_PER_SCREEN;
+        }
+        int screenHeight = activity.getResources().getDisplayMetrics().heightPixels;
+        return Math.min(MAX_ROWS_PER_SCREEN, screenHeight / rowHeight + 1);
+    }
+
+    /**
+     * Starts creating the holders the first scroll of {@code list} will need.  Must be called on
+     * the UI thread after the first frame; only the first call for the pool does anything.
+     */
+    void prefill(final RecyclerView list) {
+        if (!sPrefillEnabled || mPrefillStarted || list == null) {
+            return;
+        }
+        mPrefillStarted = true;
+        list.post(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView.Adapter<?> adapter = list.getAdapter();
+                // The first screen was created by the first layout, so only the future days
+                // scrolled into view next are missing
+                if (mReleased || adapter == null || mPrefilled >= EXTRA_ROWS) {
+                    return;
+                }
+                mPrefilling = true;
+                try {
+                    mRecycledViewPool.putRecycledView(adapter.createViewHolder(list,
+                            ForecastAdapter.VIEW_TYPE_FUTURE_DAY));
+                    mPrefilled++;
+                } catch (RuntimeException e) {
+                    // The list inflates the rest on demand
+                    Log.w(LOG_TAG, "Could not prefill the view pool", e);
+                    return;
+                } finally {
+                    mPrefilling = false;
+                }
+                list.post(this);
+            }
+        });
+    }
+
+    /**
+     * Inflates an item for {@link ForecastAdapter#onCreateViewHolder}.
+     */
+    View inflate(int layoutId, ViewGroup parent) {
+        if (!mPrefilling) {
+            mInflatedOnDemand++;
+        }
+        return LayoutInflater.from(parent.getContext()).inflate(layoutId, parent, false);
+    }
+
+    /**
+     * The pool to give the forecast list, sized for a screen of rows.  It outlives the
+     * fragment's view, so holders survive it being recreated within the activity.
+     */
+    public RecyclerView.RecycledViewPool getRecycledViewPool() {
+        return mRecycledViewPool;
+    }
+
+    int getPrefilledCount() {
+        return mPrefilled;
+    }
+
+    int getInflatedOnDemandCount() {
+        return mInflatedOnDemand;
+    }
+
+    /**
+     * Drops the recycled holders, and stops prefilling if that is still going.  Called when the
+     * activity is destroyed.
+     */
+    void release() {
+        mReleased = true;
+        mRecycledViewPool.clear();
+        Log.d(LOG_TAG, "Items prefilled: " + mPrefilled + ", inflated on demand: " +
+                mInflatedOnDemand);
+    }
+}
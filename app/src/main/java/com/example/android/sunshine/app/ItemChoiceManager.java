@@ -27,6 +27,8 @@ import android.util.SparseBooleanArray;
 import android.widget.AbsListView;
 import android.widget.Checkable;
 
+import com.example.android.sunshine.core.ChoiceReconciler;
+
 /**
  * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
  * doesn't take advantage of new adapter features to track changes in the underlying data.
@@ -37,6 +39,12 @@ public class ItemChoiceManager {
     private int mChoiceMode;
 
     private RecyclerView.Adapter mAdapter;
+    private final ChoiceReconciler.ItemIds mItemIds = new ChoiceReconciler.ItemIds() {
+        @Override
+        public long getItemId(int position) {
+            return mAdapter.getItemId(position);
+        }
+    };
     private RecyclerView.AdapterDataObserver mAdapterDataObserver = new RecyclerView.AdapterDataObserver() {
         @Override
         public void onChanged() {
@@ -162,28 +170,17 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
+            // Look around to see if the ID is nearby. If not, uncheck it.
+            final int position = ChoiceReconciler.findPosition(mItemIds, id, lastPos,
+                    CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
+            if (position == ChoiceReconciler.NOT_FOUND) {
+                mCheckedIdStates.delete(id);
+                checkedIndex--;
             } else {
-                mCheckStates.put(lastPos, true);
+                mCheckStates.put(position, true);
+                if (position != lastPos) {
+                    mCheckedIdStates.setValueAt(checkedIndex, position);
+                }
             }
         }
     }
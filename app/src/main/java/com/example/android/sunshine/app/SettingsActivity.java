@@ -16,8 +16,11 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -30,11 +33,14 @@ import android.view.View;
 import android.widget.ImageView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.LocalRefreshService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
 import com.google.android.gms.maps.model.LatLng;
 
+import java.lang.ref.WeakReference;
+
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p/>
@@ -46,7 +52,22 @@ import com.google.android.gms.maps.model.LatLng;
 public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
     protected final static int PLACE_PICKER_REQUEST = 9090;
+    // Picked places this close to a location we already have weather for reuse that location
+    private static final double NEARBY_LOCATION_RADIUS_KM = 2.0;
+
+    private static final String[] NEAREST_LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    private static final int COL_LOCATION_SETTING = 0;
+    private static final int COL_COORD_LAT = 1;
+    private static final int COL_COORD_LONG = 2;
+
     private ImageView mAttribution;
+    // Set while a picked place is being written, so that it isn't taken for a typed location
+    private boolean mSavingPickedPlace;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -154,6 +175,9 @@ public class SettingsActivity extends PreferenceActivity
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_key))) {
+            if (mSavingPickedPlace) {
+                return;
+            }
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SharedPreferences.Editor editor = sharedPreferences.edit();
@@ -169,8 +193,12 @@ public class SettingsActivity extends PreferenceActivity
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if (key.equals(getString(R.string.pref_units_key))) {
-            // units have changed. update lists of weather entries accordingly
+            // units have changed. The database always stores metric values, so there is
+            // no need to sync: update lists of weather entries accordingly and re-render
+            // the widgets, wearable and notification from the stored data.
+            Utility.invalidateFormatCache();
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            LocalRefreshService.startUnitsChanged(this);
         } else if (key.equals(getString(R.string.pref_location_status_key))) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -196,6 +224,8 @@ public class SettingsActivity extends PreferenceActivity
                 Place place = PlacePicker.getPlace(data, this);
                 String address = place.getAddress().toString();
                 LatLng latLong = place.getLatLng();
+                double latitude = latLong.latitude;
+                double longitude = latLong.longitude;
 
                 // If the provided place doesn't have an address, we'll form a display-friendly
                 // string from the latlng values.
@@ -203,42 +233,107 @@ public class SettingsActivity extends PreferenceActivity
                     address = String.format("(%.2f, %.2f)", latLong.latitude, latLong.longitude);
                 }
 
-                SharedPreferences sharedPreferences =
-                        PreferenceManager.getDefaultSharedPreferences(this);
-                SharedPreferences.Editor editor = sharedPreferences.edit();
-                editor.putString(getString(R.string.pref_location_key), address);
-
-                // Also store the latitude and longitude so that we can use these to get a precise
-                // result from our weather service. We cannot expect the weather service to
-                // understand addresses that Google formats.
-                editor.putFloat(getString(R.string.pref_location_latitude),
-                        (float) latLong.latitude);
-                editor.putFloat(getString(R.string.pref_location_longitude),
-                        (float) latLong.longitude);
-                editor.commit();
-
-                // Tell the SyncAdapter that we've changed the location, so that we can update
-                // our UI with new values. We need to do this manually because we are responding
-                // to the PlacePicker widget result here instead of allowing the
-                // LocationEditTextPreference to handle these changes and invoke our callbacks.
-                Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-                setPreferenceSummary(locationPreference, address);
-
-                // Add attributions for our new PlacePicker location.
-                if (mAttribution != null) {
-                    mAttribution.setVisibility(View.VISIBLE);
-                } else {
-                    // For pre-Honeycomb devices, we cannot add a footer, so we will use a snackbar
-                    View rootView = findViewById(android.R.id.content);
-                    Snackbar.make(rootView, getString(R.string.attribution_text),
-                            Snackbar.LENGTH_LONG).show();
+                // If we already have weather for a location close to the picked place, switch
+                // to that location instead of creating a new one, so that its forecast is shown
+                // right away and we don't download the same weather twice.  The lookup hits the
+                // provider, so it runs off the UI thread and the place is saved once it's done.
+                new SavePickedPlaceTask(this, address, latitude, longitude).execute();
+            }
+        } else {
+            super.onActivityResult(requestCode, resultCode, data);
+        }
+    }
+
+    /**
+     * Swaps a picked place for a nearby location we already have weather for, then stores it as
+     * the location setting and starts a sync for it.  The place is stored even if the activity
+     * has gone away in the meantime, only updating its screen is skipped.
+     */
+    private static class SavePickedPlaceTask extends AsyncTask<Void, Void, Void> {
+        private final Context mContext;
+        private final WeakReference<SettingsActivity> mActivity;
+        private String mAddress;
+        private double mLatitude;
+        private double mLongitude;
+
+        SavePickedPlaceTask(SettingsActivity activity, String address, double latitude,
+                            double longitude) {
+            mContext = activity.getApplicationContext();
+            mActivity = new WeakReference<SettingsActivity>(activity);
+            mAddress = address;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            Cursor nearest = mContext.getContentResolver().query(
+                    WeatherContract.LocationEntry.buildNearestLocationUri(
+                            mLatitude, mLongitude, NEARBY_LOCATION_RADIUS_KM),
+                    NEAREST_LOCATION_COLUMNS, null, null, null);
+            if (nearest != null) {
+                if (nearest.moveToFirst()) {
+                    mAddress = nearest.getString(COL_LOCATION_SETTING);
+                    mLatitude = nearest.getDouble(COL_COORD_LAT);
+                    mLongitude = nearest.getDouble(COL_COORD_LONG);
                 }
+                nearest.close();
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            SettingsActivity activity = mActivity.get();
+            if (activity != null && (activity.isFinishing() || activity.isDestroyed())) {
+                activity = null;
+            }
 
-                Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+            SharedPreferences sharedPreferences =
+                    PreferenceManager.getDefaultSharedPreferences(mContext);
+            SharedPreferences.Editor editor = sharedPreferences.edit();
+            editor.putString(mContext.getString(R.string.pref_location_key), mAddress);
+
+            // Also store the latitude and longitude so that we can use these to get a precise
+            // result from our weather service. We cannot expect the weather service to
+            // understand addresses that Google formats.
+            editor.putFloat(mContext.getString(R.string.pref_location_latitude),
+                    (float) mLatitude);
+            editor.putFloat(mContext.getString(R.string.pref_location_longitude),
+                    (float) mLongitude);
+
+            // By now the activity is usually resumed and listening for preference changes, and
+            // a new location would wipe the latitude and longitude we are storing here.
+            if (activity != null) {
+                activity.mSavingPickedPlace = true;
             }
+            editor.commit();
+            if (activity != null) {
+                activity.mSavingPickedPlace = false;
+                activity.showPickedPlace(mAddress);
+            }
+
+            Utility.resetLocationStatus(mContext);
+            SunshineSyncAdapter.syncImmediately(mContext);
+        }
+    }
+
+    private void showPickedPlace(String address) {
+        // Tell the SyncAdapter that we've changed the location, so that we can update
+        // our UI with new values. We need to do this manually because we are responding
+        // to the PlacePicker widget result here instead of allowing the
+        // LocationEditTextPreference to handle these changes and invoke our callbacks.
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        setPreferenceSummary(locationPreference, address);
+
+        // Add attributions for our new PlacePicker location.
+        if (mAttribution != null) {
+            mAttribution.setVisibility(View.VISIBLE);
         } else {
-            super.onActivityResult(requestCode, resultCode, data);
+            // For pre-Honeycomb devices, we cannot add a footer, so we will use a snackbar
+            View rootView = findViewById(android.R.id.content);
+            Snackbar.make(rootView, getString(R.string.attribution_text),
+                    Snackbar.LENGTH_LONG).show();
         }
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Splits the app's start into stages, so the first frame waits for nothing but the layout and
+ * the forecast already stored:
+ * <ol>
+ * <li>MainActivity's onCreate inflates its layout and ForecastFragment starts the loader for
+ * the stored forecast, and nothing else.</li>
+ * <li>Once the first frame has been drawn, {@link #runAfterFirstFrame} runs the rest on the UI
+ * thread, which is the Play Services check, because that may show a dialog, and prefilling
+ * the forecast list's view pool for its first scroll.</li>
+ * <li>{@link StartupService} then sets up the sync account and GCM registration in the
+ * background.  Looking up the account is a binder call to the AccountManager, and on the first
+ * launch adding it, scheduling the periodic sync and requesting the first one are several
+ * more, none of which the stored forecast depends on.</li>
+ * </ol>
+ * How long each stage takes is recorded by {@link StartupTrace}.
+ */
+class StartupInitializer {
+    /**
+     * Runs {@code work} on the UI thread once the activity's first frame has been drawn.
+     */
+    static void runAfterFirstFrame(Activity activity, final Runnable work) {
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Posted while the frame is being drawn, so it runs right after
+                        decor.post(work);
+                        return true;
+                    }
+                });
+    }
+}
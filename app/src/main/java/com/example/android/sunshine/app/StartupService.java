@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.gcm.RegistrationIntentService;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * IntentService which does the part of the app's start that the first frame doesn't need, see
+ * {@link StartupInitializer}: it makes sure the sync account exists, which on the first launch
+ * also schedules the periodic sync and requests the first one, and starts GCM registration if
+ * this device hasn't sent a token yet.
+ */
+public class StartupService extends IntentService {
+    private static final String EXTRA_REGISTER_GCM = "register_gcm";
+
+    public StartupService() {
+        super(StartupService.class.getSimpleName());
+    }
+
+    /**
+     * @param registerGcm whether Play Services is available, so GCM registration can be done
+     */
+    public static void start(Context context, boolean registerGcm) {
+        context.startService(new Intent(context, StartupService.class)
+                .putExtra(EXTRA_REGISTER_GCM, registerGcm));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SunshineSyncAdapter.initializeSyncAdapter(this);
+
+        if (intent != null && intent.getBooleanExtra(EXTRA_REGISTER_GCM, false)) {
+            // Because this is the initial creation of the app, we'll want to be certain we have
+            // a token. If we do not, then we will start the IntentService that will register this
+            // application with GCM.
+            SharedPreferences sharedPreferences =
+                    PreferenceManager.getDefaultSharedPreferences(this);
+            boolean sentToken = sharedPreferences.getBoolean(MainActivity.SENT_TOKEN_TO_SERVER,
+                    false);
+            if (!sentToken) {
+                startService(new Intent(this, RegistrationIntentService.class));
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.system.Os;
+import android.system.OsConstants;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Timestamps of the steps between launching the app and the first forecast on screen, and the
+ * time to first forecast over the last {@link #MAX_SAMPLES} launches.
+ * <p/>
+ * A launch starts when MainActivity is created and ends when ForecastFragment is about to draw
+ * rows of a stored forecast; the steps in between are marked with {@link #mark(int)}, which is
+ * a couple of field reads once a step is marked.  A launch counts as cold if it is the first in
+ * its process and the process was started for it, rather than earlier for a sync or a widget.
+ * <p/>
+ * When enabled, which is the case in debug builds or after
+ * {@code adb shell setprop log.tag.StartupTrace DEBUG} and a restart of the app, each launch is
+ * logged as one line of JSON under the {@code StartupTrace} tag, for startup benchmarks to pick
+ * up, and its time to first forecast is kept.  The distribution is read with
+ * {@code adb shell dumpsys activity com.example.android.sunshine.app/.MainActivity}, and passing
+ * {@code reset} after the component name clears it.  Launches are marked on the UI thread, but
+ * dumpsys calls {@link #dump} and {@link #reset} on a binder thread, so the last launch is
+ * volatile and the kept samples are only read or written while holding a lock.
+ */
+public class StartupTrace {
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({MARK_PROCESS_START, MARK_APPLICATION_CREATED, MARK_ACTIVITY_CREATED,
+            MARK_LOADER_CREATED, MARK_LOAD_FINISHED, MARK_FIRST_BIND, MARK_FIRST_FORECAST_DRAW})
+    public @interface Mark {
+    }
+
+    public static final int MARK_PROCESS_START = 0;
+    public static final int MARK_APPLICATION_CREATED = 1;
+    public static final int MARK_ACTIVITY_CREATED = 2;
+    public static final int MARK_LOADER_CREATED = 3;
+    public static final int MARK_LOAD_FINISHED = 4;
+    public static final int MARK_FIRST_BIND = 5;
+    public static final int MARK_FIRST_FORECAST_DRAW = 6;
+    private static final String[] MARK_NAMES = {"process_start", "application_created",
+            "activity_created", "loader_created", "load_finished", "first_bind",
+            "first_forecast_draw"};
+
+    static final int MAX_SAMPLES = 100;
+    // An activity created later than this after the application was started by something else
+    private static final long COLD_LAUNCH_WINDOW_MILLIS = 2000;
+
+    // The samples are "c" or "w" for cold or warm and the milliseconds, separated by spaces
+    private static final String PREFS_NAME = "startup_trace";
+    private static final String PREF_SAMPLES = "samples";
+
+    // Field 22 of /proc/self/stat, counted from the one after the command name
+    private static final int STAT_START_TIME_FIELD = 19;
+
+    private static volatile Boolean sEnabled;
+    private static long sApplicationCreated;
+    private static boolean sLaunchedInProcess;
+    private static final long[] sMarks = new long[MARK_NAMES.length];
+    private static boolean sInLaunch;
+    private static boolean sColdLaunch;
+    private static volatile String sLastLaunch;
+    private static final Object sSamplesLock = new Object();
+
+    public static boolean isEnabled() {
+        if (sEnabled == null) {
+            sEnabled = BuildConfig.DEBUG || Log.isLoggable(LOG_TAG, Log.DEBUG);
+        }
+        return sEnabled;
+    }
+
+    static void onApplicationCreated() {
+        sApplicationCreated = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Starts a launch, dropping whatever was marked for one that never drew a forecast.
+     */
+    static void onActivityCreated() {
+        long now = SystemClock.elapsedRealtime();
+        Arrays.fill(sMarks, 0);
+        sColdLaunch = !sLaunchedInProcess && sApplicationCreated != 0
+                && now - sApplicationCreated < COLD_LAUNCH_WINDOW_MILLIS;
+        if (sColdLaunch) {
+            sMarks[MARK_APPLICATION_CREATED] = sApplicationCreated;
+        }
+        sMarks[MARK_ACTIVITY_CREATED] = now;
+        sLaunchedInProcess = true;
+        sInLaunch = true;
+    }
+
+    /**
+     * Marks a step of the current launch, if there is one and the step isn't marked yet.
+     */
+    static void mark(@Mark int mark) {
+        if (sInLaunch && sMarks[mark] == 0) {
+            sMarks[mark] = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Called by ForecastFragment just before it draws rows of a forecast, which ends the launch.
+     */
+    static void onForecastDrawn(Context context) {
+        if (!sInLaunch) {
+            return;
+        }
+        mark(MARK_FIRST_FORECAST_DRAW);
+        sInLaunch = false;
+        if (!isEnabled()) {
+            return;
+        }
+        if (sColdLaunch) {
+            // Read only now, so the launch itself doesn't wait for it
+            sMarks[MARK_PROCESS_START] = getProcessStartElapsedMillis();
+        }
+
+        // Measured from the process start where it's known, the activity otherwise
+        long base = sMarks[MARK_PROCESS_START] > 0
+                ? sMarks[MARK_PROCESS_START] : sMarks[MARK_ACTIVITY_CREATED];
+        long timeToForecast = sMarks[MARK_FIRST_FORECAST_DRAW] - base;
+        try {
+            JSONObject launch = new JSONObject();
+            launch.put("launch", sColdLaunch ? "cold" : "warm");
+            launch.put("time_to_first_forecast_ms", timeToForecast);
+            launch.put("from", MARK_NAMES[sMarks[MARK_PROCESS_START] > 0
+                    ? MARK_PROCESS_START : MARK_ACTIVITY_CREATED]);
+            JSONObject marks = new JSONObject();
+            for (int i = 0; i < sMarks.length; i++) {
+                if (sMarks[i] > 0) {
+                    marks.put(MARK_NAMES[i], sMarks[i] - base);
+                }
+            }
+            launch.put("marks_ms", marks);
+            sLastLaunch = launch.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        Log.i(LOG_TAG, sLastLaunch);
+        addSample(context, sColdLaunch, timeToForecast);
+    }
+
+    static void addSample(Context context, boolean cold, long millis) {
+        SharedPreferences prefs = getPrefs(context);
+        synchronized (sSamplesLock) {
+            String[] samples = TextUtils.split(prefs.getString(PREF_SAMPLES, ""), " ");
+            int first = Math.max(0, samples.length - MAX_SAMPLES + 1);
+            StringBuilder kept = new StringBuilder();
+            for (int i = first; i < samples.length; i++) {
+                kept.append(samples[i]).append(' ');
+            }
+            kept.append(cold ? 'c' : 'w').append(millis);
+            prefs.edit().putString(PREF_SAMPLES, kept.toString()).apply();
+        }
+    }
+
+    /**
+     * @return the kept times to first forecast of cold or warm launches, sorted
+     */
+    static long[] getSamples(Context context, boolean cold) {
+        String[] samples;
+        synchronized (sSamplesLock) {
+            samples = TextUtils.split(getPrefs(context).getString(PREF_SAMPLES, ""), " ");
+        }
+        char kind = cold ? 'c' : 'w';
+        ArrayList<Long> matching = new ArrayList<Long>();
+        for (String sample : samples) {
+            if (sample.length() > 1 && sample.charAt(0) == kind) {
+                matching.add(Long.parseLong(sample.substring(1)));
+            }
+        }
+        long[] sorted = new long[matching.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = matching.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return the smallest sample at or above the given percentile, or -1 if there are none
+     */
+    static long getPercentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int rank = (sorted.length * percentile + 99) / 100;
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    static void reset(Context context) {
+        synchronized (sSamplesLock) {
+            getPrefs(context).edit().clear().apply();
+        }
+        sLastLaunch = null;
+    }
+
+    static void dump(Context context, PrintWriter writer) {
+        if (!isEnabled()) {
+            writer.println("The startup trace is disabled, run `adb shell setprop log.tag." +
+                    LOG_TAG + " DEBUG` and restart the app to enable it");
+            return;
+        }
+        writer.println("Time to first forecast in ms (launch: count p50 p90 max)");
+        dumpSamples(writer, "cold", getSamples(context, true));
+        dumpSamples(writer, "warm", getSamples(context, false));
+        writer.println("Last launch in this process");
+        String lastLaunch = sLastLaunch;
+        writer.print("  ");
+        writer.println(lastLaunch != null ? lastLaunch : "none");
+    }
+
+    private static void dumpSamples(PrintWriter writer, String name, long[] sorted) {
+        writer.println("  " + name + ": " + sorted.length + " " + getPercentile(sorted, 50) +
+                " " + getPercentile(sorted, 90) + " " + getPercentile(sorted, 100));
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return when the process was started in the time base of
+     * {@link SystemClock#elapsedRealtime()}, to the kernel's clock tick, or 0 if unknown
+     */
+    static long getProcessStartElapsedMillis() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/stat"));
+            String stat;
+            try {
+                stat = reader.readLine();
+            } finally {
+                reader.close();
+            }
+            // The command name is in parentheses and may contain spaces
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long startTicks = Long.parseLong(fields[STAT_START_TIME_FIELD]);
+            long ticksPerSecond = Os.sysconf(OsConstants._SC_CLK_TCK);
+            return startTicks * 1000 / ticksPerSecond;
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Could not read the process start time", e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weather art scaled to a few square sizes and kept in memory and on disk, so nothing that shows
+ * art has to wait for the network: the forecast list, the details, the widgets and the
+ * notification all take it from here.
+ * <p/>
+ * Requested sizes are rounded up to a bucket, so the same art is stored a handful of times at
+ * most.  Each condition's art is downloaded once, at the largest size the app shows it, and the
+ * smaller variants are scaled from that.  The sync {@link #prefetch}es the art of every condition
+ * in the new forecast, and there are only a few dozen conditions, so the cache is usually warm
+ * before anything asks.  {@link #getLocalFile} answers from memory and can be used while
+ * binding views, {@link #getLocal} and {@link #getResource} read local storage, and art that
+ * isn't there yet is downloaded in the background by {@link #fetch}.  Downloaded art is keyed by
+ * its URL, which includes the art pack.
+ */
+public class WeatherArtCache {
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    // Square sizes in pixels, a notification's large icon is 64dp and fits in 256 at xxxhdpi
+    static final int[] SIZE_BUCKETS = {48, 64, 96, 128, 192, 256, 384, 512};
+
+    private static final String DIRECTORY = "weather_art";
+    private static final String SUFFIX = ".png";
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final long FETCH_TIMEOUT_SECONDS = 30;
+
+    public interface Callback {
+        /**
+         * Called on a background thread once the art has been downloaded and cached.
+         *
+         * @param art the art, or null if it couldn't be downloaded
+         */
+        void onArtLoaded(int weatherId, @Nullable Bitmap art);
+    }
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    // The sizes the app shows art at, from small to large, and the bucket art is downloaded at
+    private final int[] mDisplaySizes;
+    private final int mSourceBucket;
+    // The files in mDirectory, so views can be bound without touching the disk.  Filled in by
+    // the first task of mFetchExecutor.
+    private final Set<String> mStoredKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // File names are derived from the URL, which is hashed once per art
+    private final ConcurrentHashMap<String, String> mUrlHashes =
+            new ConcurrentHashMap<String, String>();
+    private final LruCache<String, Bitmap> mMemoryCache =
+            new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+    // Downloads in flight and who is waiting for them, so each piece of art is fetched once
+    private final HashMap<String, ArrayList<Callback>> mPending =
+            new HashMap<String, ArrayList<Callback>>();
+    private final ExecutorService mFetchExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+
+    WeatherArtCache(Context context) {
+        mContext = context.getApplicationContext();
+        mDirectory = new File(mContext.getCacheDir(), DIRECTORY);
+        Resources resources = mContext.getResources();
+        mDisplaySizes = new int[]{
+                resources.getDimensionPixelSize(R.dimen.list_icon),
+                resources.getDimensionPixelSize(R.dimen.today_icon),
+                getNotificationIconSize(mContext)
+        };
+        Arrays.sort(mDisplaySizes);
+        mSourceBucket = getSizeBucket(mDisplaySizes[mDisplaySizes.length - 1]);
+
+        mFetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String[] names = mDirectory.list();
+                if (names == null) {
+                    return;
+                }
+                for (String name : names) {
+                    if (name.endsWith(SUFFIX)) {
+                        mStoredKeys.add(name.substring(0, name.length() - SUFFIX.length()));
+                    }
+                }
+            }
+        });
+    }
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherArtCache(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the smallest bucket at least {@code size} pixels wide, or the largest bucket
+     */
+    static int getSizeBucket(int size) {
+        for (int bucket : SIZE_BUCKETS) {
+            if (bucket >= size) {
+                return bucket;
+            }
+        }
+        return SIZE_BUCKETS[SIZE_BUCKETS.length - 1];
+    }
+
+    /**
+     * @return the size of the notification's large icon in pixels
+     */
+    public static int getNotificationIconSize(Context context) {
+        Resources resources = context.getResources();
+        return Math.max(
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height));
+    }
+
+    /**
+     * The file holding the downloaded art for the condition, without touching the disk, so it
+     * can be called while binding views.  Views load the file with Glide, which decodes it off
+     * the UI thread.
+     *
+     * @return the art scaled to the size bucket of {@code size}, or null if it isn't cached or
+     * the local art pack is in use
+     */
+    @Nullable
+    public File getLocalFile(int weatherId, int size) {
+        String url = getRemoteUrl(weatherId);
+        if (url == null) {
+            return null;
+        }
+        String key = getKey(url, getSizeBucket(size));
+        return mStoredKeys.contains(key) ? getFile(key) : null;
+    }
+
+    /**
+     * Shows the art for the condition in the view: the downloaded art if it is stored, and the
+     * app's own art until then.  Never waits for the network, so it can be used while scrolling.
+     * Must be called from the UI thread.
+     *
+     * @param size         the size the view shows the art at, in pixels
+     * @param defaultImage the resource shown while the downloaded art isn't there
+     */
+    public void loadInto(final ImageView view, int weatherId, final int size,
+                         final int defaultImage) {
+        File art = getLocalFile(weatherId, size);
+        if (art == null) {
+            // Recycled views may still have a load in flight that would overwrite this.  The
+            // view is updated once the art is in.
+            Glide.clear(view);
+            view.setImageResource(defaultImage);
+            view.setTag(R.id.weather_art_pending, weatherId);
+            fetch(weatherId, size, new Callback() {
+                @Override
+                public void onArtLoaded(final int weatherId, Bitmap art) {
+                    if (art == null) {
+                        return;
+                    }
+                    view.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Unless the view has been bound to another day since
+                            Object pending = view.getTag(R.id.weather_art_pending);
+                            if (pending != null && (Integer) pending == weatherId) {
+                                loadInto(view, weatherId, size, defaultImage);
+                            }
+                        }
+                    });
+                }
+            });
+        } else {
+            view.setTag(R.id.weather_art_pending, null);
+            Glide.with(view.getContext())
+                    .load(art)
+                    .error(defaultImage)
+                    .crossFade()
+                    .into(view);
+        }
+    }
+
+    /**
+     * The downloaded art for the condition, if it has been downloaded before.  Reads from disk,
+     * so it must not be called from the UI thread.
+     *
+     * @return the art scaled to the size bucket of {@code size}, or null if it isn't cached or
+     * the local art pack is in use
+     */
+    @Nullable
+    public Bitmap getLocal(int weatherId, int size) {
+        String url = getRemoteUrl(weatherId);
+        if (url == null) {
+            return null;
+        }
+        String key = getKey(url, getSizeBucket(size));
+        Bitmap art = mMemoryCache.get(key);
+        if (art != null) {
+            return art;
+        }
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        mStoredKeys.add(key);
+        art = BitmapFactory.decodeFile(file.getPath());
+        if (art != null) {
+            mMemoryCache.put(key, art);
+        }
+        return art;
+    }
+
+    /**
+     * The art for the condition that ships with the app.
+     *
+     * @return the art scaled to the size bucket of {@code size}, or null if there is none
+     */
+    @Nullable
+    public Bitmap getResource(int weatherId, int size) {
+        int resourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (resourceId == -1) {
+            return null;
+        }
+        int bucket = getSizeBucket(size);
+        String key = "res:" + resourceId + "_" + bucket;
+        Bitmap art = mMemoryCache.get(key);
+        if (art == null) {
+            art = decodeScaledResource(resourceId, bucket);
+            if (art != null) {
+                mMemoryCache.put(key, art);
+            }
+        }
+        return art;
+    }
+
+    /**
+     * Downloads the art for the condition in the background, unless the local art pack is in
+     * use or the art is cached already.
+     *
+     * @param callback told once the art is in, may be null
+     * @return false if there is nothing to download
+     */
+    public boolean fetch(final int weatherId, int size, @Nullable Callback callback) {
+        final String url = getRemoteUrl(weatherId);
+        if (url == null) {
+            return false;
+        }
+        final int bucket = getSizeBucket(size);
+        final String key = getKey(url, bucket);
+        if (mMemoryCache.get(key) != null || mStoredKeys.contains(key)) {
+            return false;
+        }
+        synchronized (mPending) {
+            ArrayList<Callback> callbacks = mPending.get(key);
+            if (callbacks != null) {
+                if (callback != null) {
+                    callbacks.add(callback);
+                }
+                return true;
+            }
+            callbacks = new ArrayList<Callback>();
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+            mPending.put(key, callbacks);
+        }
+        mFetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap art = load(url, bucket, key);
+                ArrayList<Callback> callbacks;
+                synchronized (mPending) {
+                    callbacks = mPending.remove(key);
+                }
+                for (Callback callback : callbacks) {
+                    callback.onArtLoaded(weatherId, art);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Downloads and scales the art of the given conditions for every size the app shows it at,
+     * and waits for that.  The sync calls this so the art is in before anything asks for it.
+     *
+     * @return false if not all art was in within the timeout
+     */
+    public boolean prefetch(int[] weatherIds, long timeoutMillis) {
+        HashSet<String> urls = new HashSet<String>();
+        ArrayList<int[]> requests = new ArrayList<int[]>();
+        for (int weatherId : weatherIds) {
+            String url = getRemoteUrl(weatherId);
+            // Several conditions share the same art
+            if (url != null && urls.add(url)) {
+                for (int size : mDisplaySizes) {
+                    requests.add(new int[]{weatherId, size});
+                }
+            }
+        }
+        final CountDownLatch latch = new CountDownLatch(requests.size());
+        Callback callback = new Callback() {
+            @Override
+            public void onArtLoaded(int weatherId, Bitmap art) {
+                latch.countDown();
+            }
+        };
+        for (int[] request : requests) {
+            if (!fetch(request[0], request[1], callback)) {
+                latch.countDown();
+            }
+        }
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Produces the art in the given bucket, from the largest variant when that is stored and
+     * from the network otherwise, and stores it.  Runs on mFetchExecutor.
+     */
+    private Bitmap load(String url, int bucket, String key) {
+        Bitmap art = mMemoryCache.get(key);
+        if (art == null && mStoredKeys.contains(key)) {
+            // Stored before the directory had been listed when this was requested
+            art = BitmapFactory.decodeFile(getFile(key).getPath());
+        }
+        if (art != null) {
+            mMemoryCache.put(key, art);
+            return art;
+        }
+        String sourceKey = getKey(url, Math.max(bucket, mSourceBucket));
+        Bitmap source = mMemoryCache.get(sourceKey);
+        if (source == null && mStoredKeys.contains(sourceKey)) {
+            source = BitmapFactory.decodeFile(getFile(sourceKey).getPath());
+        }
+        if (source == null) {
+            source = download(url, Math.max(bucket, mSourceBucket));
+            if (source == null) {
+                return null;
+            }
+            mMemoryCache.put(sourceKey, source);
+            if (!sourceKey.equals(key)) {
+                write(sourceKey, source);
+            }
+        }
+        art = scaleToFit(source, bucket);
+        mMemoryCache.put(key, art);
+        write(key, art);
+        return art;
+    }
+
+    /**
+     * @return the URL of the condition's art, or null if it comes with the app anyway
+     */
+    private String getRemoteUrl(int weatherId) {
+        // The Sunshine pack is the same art as our resources
+        if (Utility.usingLocalGraphics(mContext)) {
+            return null;
+        }
+        return Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+    }
+
+    private Bitmap download(String url, int bucket) {
+        try {
+            return Glide.with(mContext)
+                    .load(url)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(bucket, bucket)
+                    .get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Interrupted, failed or timed out, the next fetch tries again
+            Log.w(LOG_TAG, "Error downloading " + url, e);
+            return null;
+        }
+    }
+
+    private Bitmap decodeScaledResource(int resourceId, int bucket) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mContext.getResources(), resourceId, options);
+        int largest = Math.max(options.outWidth, options.outHeight);
+        if (largest <= 0) {
+            return null;
+        }
+        // Subsample to about the bucket, then scale to fit it exactly
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (largest / (options.inSampleSize * 2) >= bucket) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeResource(mContext.getResources(), resourceId,
+                options);
+        if (decoded == null) {
+            return null;
+        }
+        Bitmap scaled = scaleToFit(decoded, bucket);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * @return the bitmap scaled down to fit a square of {@code bucket} pixels, or the bitmap
+     * itself if it fits already
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int bucket) {
+        float scale = bucket / (float) Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale >= 1f) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+
+    private void write(String key, Bitmap art) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + mDirectory);
+            return;
+        }
+        File file = getFile(key);
+        // Written under another name first, so a reader never decodes half a file
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            art.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+            mStoredKeys.add(key);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing " + file, e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing " + temp, e);
+                }
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key + SUFFIX);
+    }
+
+    private String getKey(String url, int bucket) {
+        String hash = mUrlHashes.get(url);
+        if (hash == null) {
+            hash = hash(url);
+            mUrlHashes.put(url, hash);
+        }
+        return hash + "_" + bucket;
+    }
+
+    private static String hash(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Both are guaranteed to be available
+            throw new IllegalStateException(e);
+        }
+    }
+}
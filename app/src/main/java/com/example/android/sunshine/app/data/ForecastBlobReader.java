@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.core.ForecastBlob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a location's forecast as a {@link ForecastBlob}, for consumers that only need the
+ * numbers and would otherwise pull a cursor through the provider.
+ */
+public final class ForecastBlobReader {
+    private static final String LOG_TAG = ForecastBlobReader.class.getSimpleName();
+
+    private ForecastBlobReader() {
+    }
+
+    /**
+     * @return the forecast of the location from {@code startDate} on, or null if the provider
+     * couldn't produce it
+     */
+    public static ForecastBlob read(ContentResolver resolver, String locationSetting,
+                                    long startDate) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, startDate);
+        InputStream in = null;
+        try {
+            AssetFileDescriptor descriptor = resolver.openTypedAssetFileDescriptor(uri,
+                    WeatherContract.WeatherEntry.BLOB_MIME_TYPE, null);
+            if (descriptor == null) {
+                return null;
+            }
+            in = descriptor.createInputStream();
+            // A pipe has no length, read until the provider closes it
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(ForecastBlob.HEADER_SIZE +
+                    16 * ForecastBlob.RECORD_SIZE);
+            byte[] buffer = new byte[512];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return ForecastBlob.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading the forecast of " + locationSetting, e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Unreadable forecast of " + locationSetting, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing the forecast of " + locationSetting, e);
+                }
+            }
+        }
+    }
+}
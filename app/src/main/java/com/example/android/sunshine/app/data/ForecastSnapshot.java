@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.core.ForecastBlob;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only copy of the preferred location's forecast, as a {@link ForecastBlob} in a file of
+ * its own, for the widgets and the wearable.  The sync publishes it after each successful write,
+ * and readers map it, so a refresh reads a few bytes of page cache instead of querying SQLite
+ * through the provider.
+ * <p/>
+ * The file is written to a temporary name and renamed over the old one, so readers see either
+ * the old or the new forecast and never part of one.  A mapping of the old file stays valid after
+ * the rename.  When there is no snapshot for the location, {@link #read} falls back to asking the
+ * provider.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String DIRECTORY = "forecast_snapshot";
+    private static final String SUFFIX = ".blob";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private ForecastSnapshot() {
+    }
+
+    private static File getFile(Context context, String locationSetting) {
+        // The location is free text, so it is encoded into a safe file name
+        return new File(new File(context.getFilesDir(), DIRECTORY),
+                Uri.encode(locationSetting) + SUFFIX);
+    }
+
+    /**
+     * Writes the stored forecast of the location from {@code startDate} on, replacing the
+     * snapshots of any other location.  Called from the sync, off the main thread.
+     *
+     * @return the forecast that was written, or null if the snapshot couldn't be written
+     */
+    public static ForecastBlob publish(Context context, String locationSetting, long startDate) {
+        byte[] blob;
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, startDate),
+                WeatherProvider.BLOB_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            blob = WeatherProvider.encodeForecast(cursor, System.currentTimeMillis());
+        } finally {
+            cursor.close();
+        }
+
+        File file = getFile(context, locationSetting);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + directory);
+            return null;
+        }
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(blob);
+            // The rename must not become visible before the data does
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing the snapshot of " + locationSetting, e);
+            temp.delete();
+            return null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing " + temp, e);
+                }
+            }
+        }
+
+        // Only the preferred location is kept
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                if (!other.equals(file)) {
+                    other.delete();
+                }
+            }
+        }
+        return ForecastBlob.wrap(ByteBuffer.wrap(blob));
+    }
+
+    /**
+     * Maps the snapshot of the location.  That is an open and an mmap, and the pages are usually
+     * still cached from the write, so it isn't worth keeping the mapping around between reads.
+     *
+     * @return the mapped snapshot of the location, or null if there is none
+     */
+    public static ForecastBlob map(Context context, String locationSetting) {
+        File file = getFile(context, locationSetting);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping outlives the channel, which is closed right away
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            return ForecastBlob.wrap(buffer);
+        } catch (IOException e) {
+            // Most likely removed since the check above
+            Log.d(LOG_TAG, "No snapshot of " + locationSetting, e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Unreadable snapshot of " + locationSetting, e);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The snapshot of the location if there is one, otherwise the forecast from the provider.
+     * The snapshot may start before {@code startDate}, so callers look their first day up with
+     * {@link ForecastBlob#findDay(long)}.
+     *
+     * @return the forecast, or null if there is none
+     */
+    public static ForecastBlob read(Context context, String locationSetting, long startDate) {
+        ForecastBlob blob = map(context, locationSetting);
+        if (blob != null) {
+            return blob;
+        }
+        return ForecastBlobReader.read(context.getContentResolver(), locationSetting,
+                startDate);
+    }
+}
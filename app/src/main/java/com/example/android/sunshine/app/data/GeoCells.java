@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * Buckets coordinates into a fixed grid so that nearby locations can be found with an indexed
+ * lookup, and measures great-circle distances to refine the candidates.
+ * <p/>
+ * Cells are CELL_DEGREES wide in both latitude and longitude, roughly 11km at the equator.
+ */
+public final class GeoCells {
+    static final double CELL_DEGREES = 0.1;
+    // The largest search radius we accept, to keep the selection small
+    static final double MAX_RADIUS_KM = 100;
+
+    private static final int LAT_CELLS = (int) Math.round(180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) Math.round(360 / CELL_DEGREES);
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private GeoCells() {
+    }
+
+    /**
+     * @return the id of the grid cell containing the given coordinates
+     */
+    public static long cellFor(double latitude, double longitude) {
+        return cellId(latIndex(latitude), lonIndex(longitude));
+    }
+
+    /**
+     * Builds a selection matching every cell that may contain a point within radiusKm of the
+     * given coordinates.  Cell ids are laid out row by row, so each latitude row of the search
+     * box is a single range of ids that the index on the column can serve.
+     *
+     * @param column The column holding the cell ids
+     */
+    static String selectionWithin(String column, double latitude, double longitude,
+                                  double radiusKm) {
+        radiusKm = Math.min(radiusKm, MAX_RADIUS_KM);
+        double latSpan = radiusKm / KM_PER_DEGREE;
+        // Longitude degrees get shorter towards the poles; near them, search the whole ring
+        double cosLat = Math.cos(Math.toRadians(Math.min(89.0, Math.abs(latitude) + latSpan)));
+        double lonSpan = radiusKm / (KM_PER_DEGREE * cosLat);
+
+        int minLat = latIndex(latitude - latSpan);
+        int maxLat = latIndex(latitude + latSpan);
+        int lonStart = (int) Math.floor((longitude - lonSpan + 180) / CELL_DEGREES);
+        int lonEnd = (int) Math.floor((longitude + lonSpan + 180) / CELL_DEGREES);
+
+        StringBuilder selection = new StringBuilder();
+        for (int lat = minLat; lat <= maxLat; lat++) {
+            if (lonEnd - lonStart + 1 >= LON_CELLS) {
+                appendRange(selection, column, cellId(lat, 0), cellId(lat, LON_CELLS - 1));
+                continue;
+            }
+            // wrap around the antimeridian
+            int start = (lonStart % LON_CELLS + LON_CELLS) % LON_CELLS;
+            int end = (lonEnd % LON_CELLS + LON_CELLS) % LON_CELLS;
+            if (start <= end) {
+                appendRange(selection, column, cellId(lat, start), cellId(lat, end));
+            } else {
+                appendRange(selection, column, cellId(lat, start), cellId(lat, LON_CELLS - 1));
+                appendRange(selection, column, cellId(lat, 0), cellId(lat, end));
+            }
+        }
+        return selection.toString();
+    }
+
+    private static void appendRange(StringBuilder selection, String column, long from, long to) {
+        if (selection.length() > 0) {
+            selection.append(" OR ");
+        }
+        selection.append('(').append(column).append(" BETWEEN ").append(from)
+                .append(" AND ").append(to).append(')');
+    }
+
+    /**
+     * @return the great-circle distance between two coordinates in kilometers (haversine)
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static long cellId(int latIndex, int lonIndex) {
+        return (long) latIndex * LON_CELLS + lonIndex;
+    }
+
+    private static int latIndex(double latitude) {
+        int index = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LAT_CELLS - 1, index));
+    }
+
+    private static int lonIndex(double longitude) {
+        int index = (int) Math.floor((longitude + 180) / CELL_DEGREES);
+        return (index % LON_CELLS + LON_CELLS) % LON_CELLS;
+    }
+}
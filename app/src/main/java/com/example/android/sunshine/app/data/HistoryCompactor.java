@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Moves expired days out of the weather table into the history table, and rolls the history up
+ * as it ages: single days become weeks after {@code dailyRetentionDays}, weeks become months
+ * after {@code weeklyRetentionDays}, and months are dropped after {@code monthlyRetentionDays}.
+ * That keeps the number of history rows per location bounded no matter how long the app is used.
+ * <p/>
+ * Every step is a single set-based statement, so the whole compaction is cheap enough to run in
+ * the same short transaction as the sync that expired the days.  The caller owns the transaction.
+ */
+public class HistoryCompactor {
+
+    static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    static final long WEEK_IN_MILLIS = DAY_IN_MILLIS * 7;
+    // Weeks start on Monday.  The epoch was a Thursday, so the first Monday is 4 days later.
+    static final long WEEK_OFFSET_MILLIS = DAY_IN_MILLIS * 4;
+
+    public static final int DEFAULT_DAILY_RETENTION_DAYS = 30;
+    public static final int DEFAULT_WEEKLY_RETENTION_DAYS = 365;
+    public static final int DEFAULT_MONTHLY_RETENTION_DAYS = 365 * 5;
+
+    private static final String[] VALUE_COLUMNS = {
+            HistoryEntry.COLUMN_HUMIDITY,
+            HistoryEntry.COLUMN_PRESSURE,
+            HistoryEntry.COLUMN_WIND_SPEED
+    };
+
+    private static final String WEEK_BUCKET = "((%1$s - " + WEEK_OFFSET_MILLIS + ") / " +
+            WEEK_IN_MILLIS + ") * " + WEEK_IN_MILLIS + " + " + WEEK_OFFSET_MILLIS;
+    private static final String MONTH_BUCKET =
+            "CAST(strftime('%%s', %1$s / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+
+    private final int mDailyRetentionDays;
+    private final int mWeeklyRetentionDays;
+    private final int mMonthlyRetentionDays;
+
+    public HistoryCompactor() {
+        this(DEFAULT_DAILY_RETENTION_DAYS, DEFAULT_WEEKLY_RETENTION_DAYS,
+                DEFAULT_MONTHLY_RETENTION_DAYS);
+    }
+
+    public HistoryCompactor(int dailyRetentionDays, int weeklyRetentionDays,
+                            int monthlyRetentionDays) {
+        if (dailyRetentionDays > weeklyRetentionDays
+                || weeklyRetentionDays > monthlyRetentionDays) {
+            throw new IllegalArgumentException("Retention periods must not decrease");
+        }
+        mDailyRetentionDays = dailyRetentionDays;
+        mWeeklyRetentionDays = weeklyRetentionDays;
+        mMonthlyRetentionDays = monthlyRetentionDays;
+    }
+
+    /**
+     * Archives the weather up to and including {@code lastExpiredDate} and compacts the history
+     * relative to {@code now}.
+     *
+     * @return the number of rows inserted, updated or deleted
+     */
+    public int compact(SQLiteDatabase db, long lastExpiredDate, long now) {
+        int changed = archiveWeather(db, lastExpiredDate);
+
+        long weekCutoff = startOfWeek(now - mDailyRetentionDays * DAY_IN_MILLIS);
+        changed += rollUp(db, HistoryEntry.PERIOD_DAY, HistoryEntry.PERIOD_WEEK,
+                WEEK_BUCKET, weekCutoff);
+
+        long monthCutoff = startOfMonth(now - mWeeklyRetentionDays * DAY_IN_MILLIS);
+        changed += rollUp(db, HistoryEntry.PERIOD_WEEK, HistoryEntry.PERIOD_MONTH,
+                MONTH_BUCKET, monthCutoff);
+
+        changed += db.delete(HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = ? AND " + HistoryEntry.COLUMN_START_DATE + " < ?",
+                new String[]{Integer.toString(HistoryEntry.PERIOD_MONTH),
+                        Long.toString(startOfMonth(now - mMonthlyRetentionDays * DAY_IN_MILLIS))});
+        return changed;
+    }
+
+    private int archiveWeather(SQLiteDatabase db, long lastExpiredDate) {
+        SQLiteStatement archive = db.compileStatement("INSERT INTO " + HistoryEntry.TABLE_NAME +
+                " (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_START_DATE + ", " +
+                HistoryEntry.COLUMN_DAY_COUNT + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_HUMIDITY + ", " +
+                HistoryEntry.COLUMN_PRESSURE + ", " +
+                HistoryEntry.COLUMN_WIND_SPEED + ")" +
+                " SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.PERIOD_DAY + ", " +
+                WeatherEntry.COLUMN_DATE + ", 1, " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED +
+                " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?");
+        try {
+            archive.bindLong(1, lastExpiredDate);
+            archive.executeInsert();
+        } finally {
+            archive.close();
+        }
+        return db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(lastExpiredDate)});
+    }
+
+    /*
+        Folds the rows of one period that start before the cutoff into rows of the next period,
+        merging with any row of the next period that already exists for the same bucket.  The
+        averages are weighted by the number of days each row stands for.
+     */
+    private int rollUp(SQLiteDatabase db, int fromPeriod, int toPeriod, String bucketFormat,
+                       long cutoff) {
+        String bucket = String.format(bucketFormat, HistoryEntry.COLUMN_START_DATE);
+        String expired = HistoryEntry.COLUMN_PERIOD + " = " + fromPeriod + " AND " +
+                HistoryEntry.COLUMN_START_DATE + " < " + cutoff;
+
+        StringBuilder columns = new StringBuilder();
+        StringBuilder aggregates = new StringBuilder();
+        for (String column : VALUE_COLUMNS) {
+            columns.append(", ").append(column);
+            aggregates.append(", SUM(").append(column).append(" * ")
+                    .append(HistoryEntry.COLUMN_DAY_COUNT).append(") / SUM(")
+                    .append(HistoryEntry.COLUMN_DAY_COUNT).append(")");
+        }
+
+        db.execSQL("INSERT INTO " + HistoryEntry.TABLE_NAME +
+                " (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_START_DATE + ", " +
+                HistoryEntry.COLUMN_DAY_COUNT + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + columns + ")" +
+                " SELECT " + HistoryEntry.COLUMN_LOC_KEY + ", " + toPeriod + ", bucket, " +
+                "SUM(" + HistoryEntry.COLUMN_DAY_COUNT + "), " +
+                "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + "), " +
+                "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + ")" + aggregates +
+                " FROM (" +
+                // the expired rows of the shorter period...
+                "SELECT " + HistoryEntry.COLUMN_LOC_KEY + ", " + bucket + " AS bucket, " +
+                HistoryEntry.COLUMN_DAY_COUNT + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + columns +
+                " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + expired +
+                " UNION ALL " +
+                // ...plus the rows of the longer period they are merged into
+                "SELECT " + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_START_DATE + " AS bucket, " +
+                HistoryEntry.COLUMN_DAY_COUNT + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + columns +
+                " FROM " + HistoryEntry.TABLE_NAME + " AS merged" +
+                " WHERE " + HistoryEntry.COLUMN_PERIOD + " = " + toPeriod +
+                " AND EXISTS (SELECT 1 FROM " + HistoryEntry.TABLE_NAME +
+                " WHERE " + expired +
+                " AND " + HistoryEntry.COLUMN_LOC_KEY + " = merged." + HistoryEntry.COLUMN_LOC_KEY +
+                " AND " + bucket + " = merged." + HistoryEntry.COLUMN_START_DATE + ")" +
+                ") GROUP BY " + HistoryEntry.COLUMN_LOC_KEY + ", bucket");
+
+        return db.delete(HistoryEntry.TABLE_NAME, expired, null);
+    }
+
+    static long startOfWeek(long time) {
+        return Math.max(0, ((time - WEEK_OFFSET_MILLIS) / WEEK_IN_MILLIS) * WEEK_IN_MILLIS
+                + WEEK_OFFSET_MILLIS);
+    }
+
+    static long startOfMonth(long time) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.support.annotation.IntDef;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Per-route latency histograms and a slow operation log for {@link WeatherProvider}.
+ * <p/>
+ * Latencies go into fixed, roughly logarithmic buckets, so recording is a handful of array
+ * writes and the percentiles are accurate to about a quarter of their value.  The provider only
+ * calls in here when {@link #isEnabled()}, which is the case in debug builds or after
+ * {@code adb shell setprop log.tag.ProviderMetrics DEBUG} and a restart of the app; otherwise the
+ * only cost is that check.  The numbers are read with
+ * {@code adb shell dumpsys activity provider com.example.android.sunshine.app/.data.WeatherProvider},
+ * and passing {@code reset} after the component name clears them.
+ */
+public class ProviderMetrics {
+    private static final String LOG_TAG = ProviderMetrics.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({OP_QUERY, OP_INSERT, OP_BULK_INSERT, OP_UPDATE, OP_DELETE})
+    public @interface Operation {
+    }
+
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_BULK_INSERT = 2;
+    public static final int OP_UPDATE = 3;
+    public static final int OP_DELETE = 4;
+    private static final String[] OP_NAMES = {"query", "insert", "bulkInsert", "update", "delete"};
+
+    static final long SLOW_MILLIS = 50;
+    static final int MAX_SLOW_ENTRIES = 20;
+
+    // Upper bounds of the histogram buckets in microseconds: 1, 2, 3, ... 8, 10, 12, 15, ...
+    // growing by about a quarter each, up to a minute.  The last bucket catches everything else.
+    private static final long[] BUCKET_BOUNDS_MICROS = buildBucketBounds(60L * 1000 * 1000);
+
+    private final boolean mEnabled;
+    private final SparseArray<String> mRouteNames;
+    private final SparseArray<RouteStats> mStats = new SparseArray<RouteStats>();
+    private final ArrayDeque<String> mSlowLog = new ArrayDeque<String>();
+
+    ProviderMetrics(boolean enabled, SparseArray<String> routeNames) {
+        mEnabled = enabled;
+        mRouteNames = routeNames;
+    }
+
+    static boolean isEnabledByDefault(boolean debugBuild) {
+        return debugBuild || Log.isLoggable(LOG_TAG, Log.DEBUG);
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Cursors created through this factory remember their SQL, so the plan of a slow query can
+     * be looked up afterwards.  Null when disabled, which gives the framework's plain cursors.
+     */
+    SQLiteDatabase.CursorFactory getCursorFactory() {
+        if (!mEnabled) {
+            return null;
+        }
+        return new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                    String editTable, SQLiteQuery query) {
+                return new SqlCursor(masterQuery, editTable, query);
+            }
+        };
+    }
+
+    /**
+     * Records one operation.  Operations slower than {@link #SLOW_MILLIS} also go into the slow
+     * log, together with the query plan when {@code cursor} came from {@link #getCursorFactory()}.
+     */
+    void record(@Operation int op, int route, long elapsedNanos, int rows, String selection,
+                String[] selectionArgs, SQLiteDatabase db, Cursor cursor) {
+        long micros = elapsedNanos / 1000;
+        int key = op * 10000 + route;
+        RouteStats stats;
+        synchronized (mStats) {
+            stats = mStats.get(key);
+            if (stats == null) {
+                stats = new RouteStats();
+                mStats.put(key, stats);
+            }
+        }
+        stats.add(micros, rows);
+
+        if (micros >= SLOW_MILLIS * 1000) {
+            StringBuilder entry = new StringBuilder();
+            entry.append(OP_NAMES[op]).append(' ').append(getRouteName(route))
+                    .append(": ").append(micros / 1000).append(" ms, ").append(rows)
+                    .append(" rows, selection=").append(selection)
+                    .append(", args=").append(Arrays.toString(selectionArgs));
+            if (cursor instanceof SqlCursor) {
+                appendQueryPlan(entry, db, ((SqlCursor) cursor).mSql);
+            }
+            String line = entry.toString();
+            Log.w(LOG_TAG, "Slow " + line);
+            synchronized (mSlowLog) {
+                if (mSlowLog.size() == MAX_SLOW_ENTRIES) {
+                    mSlowLog.removeFirst();
+                }
+                mSlowLog.addLast(line);
+            }
+        }
+    }
+
+    private static void appendQueryPlan(StringBuilder entry, SQLiteDatabase db, String sql) {
+        entry.append("\n      sql: ").append(sql);
+        // Unbound parameters are treated as NULL, which leaves the plan unchanged
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = plan.getColumnIndex("detail");
+            while (plan.moveToNext()) {
+                entry.append("\n      plan: ").append(plan.getString(detail));
+            }
+        } finally {
+            plan.close();
+        }
+    }
+
+    private String getRouteName(int route) {
+        String name = mRouteNames.get(route);
+        return name != null ? name : Integer.toString(route);
+    }
+
+    void reset() {
+        synchronized (mStats) {
+            mStats.clear();
+        }
+        synchronized (mSlowLog) {
+            mSlowLog.clear();
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        if (!mEnabled) {
+            writer.println("Provider metrics are disabled, run `adb shell setprop log.tag." +
+                    LOG_TAG + " DEBUG` and restart the app to enable them");
+            return;
+        }
+        writer.println("Latency per route in ms (op route: count p50 p95 p99 max, rows total)");
+        synchronized (mStats) {
+            for (int i = 0; i < mStats.size(); i++) {
+                int key = mStats.keyAt(i);
+                writer.print("  ");
+                writer.print(OP_NAMES[key / 10000]);
+                writer.print(' ');
+                writer.print(getRouteName(key % 10000));
+                writer.print(": ");
+                writer.println(mStats.valueAt(i).summarize());
+            }
+        }
+        writer.println("Recent slow operations (over " + SLOW_MILLIS + " ms)");
+        synchronized (mSlowLog) {
+            for (String line : mSlowLog) {
+                writer.print("  ");
+                writer.println(line);
+            }
+        }
+    }
+
+    private static long[] buildBucketBounds(long maxMicros) {
+        long[] bounds = new long[128];
+        int count = 0;
+        long bound = 1;
+        while (bound < maxMicros) {
+            bounds[count++] = bound;
+            bound = Math.max(bound + 1, bound * 5 / 4);
+        }
+        bounds[count++] = maxMicros;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    static int getBucket(long micros) {
+        int index = Arrays.binarySearch(BUCKET_BOUNDS_MICROS, micros);
+        // not found gives -(insertion point) - 1, and the insertion point is the bucket whose
+        // bound is the first one above the value
+        return Math.min(index >= 0 ? index : -index - 1, BUCKET_BOUNDS_MICROS.length - 1);
+    }
+
+    static class RouteStats {
+        private final long[] mBuckets = new long[BUCKET_BOUNDS_MICROS.length];
+        private long mCount;
+        private long mRows;
+        private long mMaxMicros;
+
+        synchronized void add(long micros, int rows) {
+            mBuckets[getBucket(micros)]++;
+            mCount++;
+            mRows += rows;
+            mMaxMicros = Math.max(mMaxMicros, micros);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile, in microseconds
+         */
+        synchronized long getPercentileMicros(int percentile) {
+            long rank = (mCount * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(BUCKET_BOUNDS_MICROS[i], mMaxMicros);
+                }
+            }
+            return mMaxMicros;
+        }
+
+        synchronized String summarize() {
+            return mCount + " " + formatMillis(getPercentileMicros(50)) + " " +
+                    formatMillis(getPercentileMicros(95)) + " " +
+                    formatMillis(getPercentileMicros(99)) + " " +
+                    formatMillis(mMaxMicros) + ", " + mRows + " rows";
+        }
+
+        private static String formatMillis(long micros) {
+            return String.format("%.2f", micros / 1000.0);
+        }
+    }
+
+    private static class SqlCursor extends SQLiteCursor {
+        private static final String PREFIX = "SQLiteQuery: ";
+        final String mSql;
+
+        SqlCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+            super(driver, editTable, query);
+            String sql = query.toString();
+            mSql = sql.startsWith(PREFIX) ? sql.substring(PREFIX.length()) : sql;
+        }
+    }
+}
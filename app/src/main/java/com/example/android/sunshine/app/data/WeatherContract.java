@@ -43,6 +43,17 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_NEAREST = "nearest";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_AGGREGATE = "aggregate";
+    public static final String PATH_SYNC_TELEMETRY = "sync_telemetry";
+    public static final String PATH_HOURLY = "hourly";
+
+    // Name of the ContentProvider#call method that moves expired weather into the history table
+    // and compacts it.  The arg is the last date (inclusive) to expire.
+    public static final String METHOD_ARCHIVE_WEATHER = "archive_weather";
+    // Optional extra for METHOD_ARCHIVE_WEATHER overriding the current time, used in tests
+    public static final String EXTRA_NOW = "now";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +92,159 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Grid cell containing the coordinates, filled in by the provider.  Indexed, so that
+        // nearby locations can be found without scanning the table.
+        public static final String COLUMN_GEO_CELL = "geo_cell";
+
+        // Query parameters of the nearest location URI
+        public static final String PARAM_LATITUDE = "lat";
+        public static final String PARAM_LONGITUDE = "lon";
+        public static final String PARAM_RADIUS_KM = "radius_km";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /*
+            Returns the cached location closest to the given coordinates, if there is one within
+            radiusKm.
+         */
+        public static Uri buildNearestLocationUri(double lat, double lon, double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LATITUDE, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LONGITUDE, Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS_KM, Double.toString(radiusKm))
+                    .build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LATITUDE));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LONGITUDE));
+        }
+
+        public static double getRadiusKmFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_RADIUS_KM));
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table.  Past weather is kept
+        here as one row per location and period: single days for the recent past, rolled up into
+        weeks and then months as it gets older, so the table stays small over the years.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Values of COLUMN_PERIOD
+        public static final int PERIOD_DAY = 0;
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the PERIOD_* values
+        public static final String COLUMN_PERIOD = "period";
+        // Start of the period, stored as long in milliseconds since the epoch
+        public static final String COLUMN_START_DATE = "start_date";
+        // Number of days the row aggregates
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest and highest temperature over the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Averages over the period
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // Query parameters bounding the date range, both inclusive
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildHistoryLocationWithRange(String locationSetting,
+                                                        long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(endDate))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the sync telemetry table: one row per
+        location synced, with the time spent in each phase of the sync.  Only the most recent
+        syncs are kept.
+     */
+    public static final class SyncTelemetryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TELEMETRY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TELEMETRY;
+
+        public static final String TABLE_NAME = "sync_telemetry";
+
+        // Number of syncs kept
+        public static final int MAX_ROWS = 100;
+
+        // When the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // 1 for the location the user is looking at, 0 for a prefetched one
+        public static final String COLUMN_PREFERRED = "preferred";
+        // 1 for a sync requested by the user, 0 for a periodic one
+        public static final String COLUMN_MANUAL = "manual";
+        // One of the SunshineSyncAdapter.LocationStatus values; unknown if the sync was superseded
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        // Durations in milliseconds.  Connect includes the DNS lookup, download runs from the
+        // request to the last byte, write covers the location, weather and history updates and
+        // the forecast snapshot, and fan-out runs from handing the forecast to the widgets,
+        // Muzei, notification and wearable until the last of them is done, in the background
+        // after the rest of the sync.  The total doesn't include the fan-out.
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+        public static final String COLUMN_CONNECT_MILLIS = "connect_ms";
+        public static final String COLUMN_DOWNLOAD_MILLIS = "download_ms";
+        public static final String COLUMN_PARSE_MILLIS = "parse_ms";
+        public static final String COLUMN_WRITE_MILLIS = "write_ms";
+        public static final String COLUMN_FANOUT_MILLIS = "fanout_ms";
+
+        // Size of the response, in characters
+        public static final String COLUMN_BYTES = "bytes";
+        // Number of days written
+        public static final String COLUMN_ROWS = "rows";
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +287,18 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Type of the binary forecast (see core.ForecastBlob) that the weather/* URIs can also
+        // be opened as, with ContentResolver.openTypedAssetFileDescriptor
+        public static final String BLOB_MIME_TYPE =
+                "application/vnd." + CONTENT_AUTHORITY + ".forecast";
+
+        // Query parameter for the last date (inclusive) of a range
+        public static final String PARAM_END_DATE = "end_date";
+        // Query parameter for the maximum number of days returned, in date order
+        public static final String PARAM_LIMIT = "limit";
+        // Query parameter for a date the days returned come strictly after, to page by date
+        public static final String PARAM_AFTER_DATE = "after_date";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +317,35 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /*
+            Returns at most limit days from the start date on, the first page of the forecast.
+         */
+        public static Uri buildWeatherLocationWithStartDate(
+                String locationSetting, long startDate, int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /*
+            Returns at most limit days after the given date, which is the last date of the page
+            before, as stored.  Paging by date like this only reads the new page, where growing a
+            LIMIT or skipping an OFFSET would read every day before it again.
+         */
+        public static Uri buildWeatherLocationAfterDate(
+                String locationSetting, long afterDate, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +366,184 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 0;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly table: the forecast in 3-hour
+        steps for the next five days, about 40 points per location.  The rows are kept small,
+        see PackedWeather for the encodings, and are stored in (location_id, time) order, so a
+        window of a location's forecast is read with one range scan.  There is no _id column.
+     */
+    public static final class HourlyEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Time of the point, stored as int in seconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature in tenths of a degree Celsius, see PackedWeather.scaleTemperature
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity, pressure, wind speed and direction, see PackedWeather.pack
+        public static final String COLUMN_PACKED = "packed";
+
+        // Query parameters bounding the window, in milliseconds since the epoch.  The start is
+        // inclusive and the end exclusive.
+        public static final String PARAM_START_TIME = "start";
+        public static final String PARAM_END_TIME = "end";
+
+        public static Uri buildHourlyLocationWithWindow(String locationSetting,
+                                                        long startMillis, long endMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_TIME, Long.toString(startMillis))
+                    .appendQueryParameter(PARAM_END_TIME, Long.toString(endMillis))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(PARAM_START_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return 0;
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(PARAM_END_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the columns of the aggregate queries.  There is no table behind
+        these: each row summarises the weather of one location over a date range, computed by
+        SQLite when queried.
+     */
+    public static final class AggregateEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        // The location the row summarises
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
+
+        // Number of days in the range that have weather
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest, highest and average of the daily low temperatures
+        public static final String COLUMN_LOW_MIN = "low_min";
+        public static final String COLUMN_LOW_MAX = "low_max";
+        public static final String COLUMN_LOW_AVG = "low_avg";
+
+        // Lowest, highest and average of the daily high temperatures
+        public static final String COLUMN_HIGH_MIN = "high_min";
+        public static final String COLUMN_HIGH_MAX = "high_max";
+        public static final String COLUMN_HIGH_AVG = "high_avg";
+
+        public static final String COLUMN_HUMIDITY_MIN = "humidity_min";
+        public static final String COLUMN_HUMIDITY_MAX = "humidity_max";
+        public static final String COLUMN_HUMIDITY_AVG = "humidity_avg";
+
+        public static final String COLUMN_PRESSURE_MIN = "pressure_min";
+        public static final String COLUMN_PRESSURE_MAX = "pressure_max";
+        public static final String COLUMN_PRESSURE_AVG = "pressure_avg";
+
+        public static final String COLUMN_WIND_SPEED_MIN = "wind_min";
+        public static final String COLUMN_WIND_SPEED_MAX = "wind_max";
+        public static final String COLUMN_WIND_SPEED_AVG = "wind_avg";
+
+        // Query parameters bounding the date range, both inclusive
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        /*
+            Aggregates over every location, one row per location.
+         */
+        public static Uri buildAggregateUri(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static Uri buildAggregateLocationUri(String locationSetting,
+                                                    long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        /*
+            The URI notified when the weather of a location changes.  Query parameters aren't
+            part of the match, so observers of the location's aggregates over any range are
+            notified, and so are observers of the aggregates over all locations.
+         */
+        public static Uri buildAggregateNotificationUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
     }
 }
@@ -16,26 +16,63 @@
 package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.core.ForecastBlob;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private ProviderMetrics mMetrics;
+
+    // location_setting -> location._id, so weather-only reads can skip the location join.
+    // Cleared after every location write; the generation keeps a lookup that raced with a write
+    // from caching its stale result.
+    private final HashMap<String, Long> mLocationIdCache = new HashMap<String, Long>();
+    private int mLocationIdGeneration;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAREST = 301;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int AGGREGATE = 500;
+    static final int AGGREGATE_WITH_LOCATION = 501;
+    static final int SYNC_TELEMETRY = 600;
+    static final int HOURLY = 700;
+    static final int HOURLY_WITH_LOCATION = 701;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sAggregateQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +86,62 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //The same join as for the weather, but the projection map turns every requested column
+        //into an aggregate, so callers can only ask for the summary columns
+        sAggregateQueryBuilder = new SQLiteQueryBuilder();
+        sAggregateQueryBuilder.setTables(sWeatherByLocationSettingQueryBuilder.getTables());
+        sAggregateQueryBuilder.setProjectionMap(buildAggregateProjectionMap());
+    }
+
+    private static HashMap<String, String> buildAggregateProjectionMap() {
+        HashMap<String, String> map = new HashMap<String, String>();
+        map.put(WeatherContract.AggregateEntry.COLUMN_LOC_KEY,
+                WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                        " AS " + WeatherContract.AggregateEntry.COLUMN_LOC_KEY);
+        map.put(WeatherContract.AggregateEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        map.put(WeatherContract.AggregateEntry.COLUMN_DAY_COUNT,
+                "COUNT(*) AS " + WeatherContract.AggregateEntry.COLUMN_DAY_COUNT);
+        putAggregates(map, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.AggregateEntry.COLUMN_LOW_MIN,
+                WeatherContract.AggregateEntry.COLUMN_LOW_MAX,
+                WeatherContract.AggregateEntry.COLUMN_LOW_AVG);
+        putAggregates(map, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.AggregateEntry.COLUMN_HIGH_MIN,
+                WeatherContract.AggregateEntry.COLUMN_HIGH_MAX,
+                WeatherContract.AggregateEntry.COLUMN_HIGH_AVG);
+        putAggregates(map, WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.AggregateEntry.COLUMN_HUMIDITY_MIN,
+                WeatherContract.AggregateEntry.COLUMN_HUMIDITY_MAX,
+                WeatherContract.AggregateEntry.COLUMN_HUMIDITY_AVG);
+        putAggregates(map, WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.AggregateEntry.COLUMN_PRESSURE_MIN,
+                WeatherContract.AggregateEntry.COLUMN_PRESSURE_MAX,
+                WeatherContract.AggregateEntry.COLUMN_PRESSURE_AVG);
+        putAggregates(map, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.AggregateEntry.COLUMN_WIND_SPEED_MIN,
+                WeatherContract.AggregateEntry.COLUMN_WIND_SPEED_MAX,
+                WeatherContract.AggregateEntry.COLUMN_WIND_SPEED_AVG);
+        return map;
+    }
+
+    private static void putAggregates(HashMap<String, String> map, String column,
+                                      String minAlias, String maxAlias, String avgAlias) {
+        String qualified = WeatherContract.WeatherEntry.TABLE_NAME + "." + column;
+        map.put(minAlias, "MIN(" + qualified + ") AS " + minAlias);
+        map.put(maxAlias, "MAX(" + qualified + ") AS " + maxAlias);
+        map.put(avgAlias, "AVG(" + qualified + ") AS " + avgAlias);
     }
 
     //location.location_setting = ?
@@ -62,52 +155,422 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location.location_setting = ? AND date > ?
+    private static final String sLocationSettingAfterDateSelection =
+            sLocationSettingSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
     //location.location_setting = ? AND date = ?
     private static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND start_date >= ? AND start_date <= ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_START_DATE + " >= ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_START_DATE + " <= ? ";
+
+    //date >= ? AND date <= ?
+    private static final String sDateRangeSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    //location.location_setting = ? AND date >= ? AND date <= ?
+    private static final String sLocationSettingWithWeatherRangeSelection =
+            sLocationSettingSelection + "AND " + sDateRangeSelection;
+
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            sLocationIdSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date > ?
+    private static final String sLocationIdAfterDateSelection =
+            sLocationIdSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            sLocationIdSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //weather.location_id = ? AND date >= ? AND date <= ?
+    private static final String sLocationIdWithWeatherRangeSelection =
+            sLocationIdSelection + "AND " + sDateRangeSelection;
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getEndDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+
+        // Filter on the weather table alone when the caller doesn't need the location columns
+        long locationId = needsLocationJoin(projection, sortOrder)
+                ? -1 : getLocationId(locationSetting);
+        String location = locationId != -1 ? Long.toString(locationId) : locationSetting;
 
         String[] selectionArgs;
         String selection;
 
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+        if (afterDate != 0) {
+            selectionArgs = new String[]{location, Long.toString(afterDate)};
+            selection = locationId != -1 ? sLocationIdAfterDateSelection
+                    : sLocationSettingAfterDateSelection;
+        } else if (endDate != 0) {
+            selectionArgs = new String[]{location, Long.toString(startDate),
+                    Long.toString(endDate)};
+            selection = locationId != -1 ? sLocationIdWithWeatherRangeSelection
+                    : sLocationSettingWithWeatherRangeSelection;
+        } else if (startDate == 0) {
+            selection = locationId != -1 ? sLocationIdSelection : sLocationSettingSelection;
+            selectionArgs = new String[]{location};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{location, Long.toString(startDate)};
+            selection = locationId != -1 ? sLocationIdWithStartDateSelection
+                    : sLocationSettingWithStartDateSelection;
         }
 
+        return queryWeather(locationId != -1, projection, selection, selectionArgs, sortOrder,
+                limit > 0 ? Integer.toString(limit) : null);
+    }
+
+    private Cursor getWeatherByLocationSettingAndDate(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+
+        long locationId = needsLocationJoin(projection, sortOrder)
+                ? -1 : getLocationId(locationSetting);
+        if (locationId != -1) {
+            return queryWeather(true, projection, sLocationIdAndDaySelection,
+                    new String[]{Long.toString(locationId), Long.toString(date)}, sortOrder, null);
+        }
+        return queryWeather(false, projection, sLocationSettingAndDaySelection,
+                new String[]{locationSetting, Long.toString(date)}, sortOrder, null);
+    }
+
+    //hourly.location_id = ? AND time >= ? AND time < ?
+    private static final String sHourlyWindowSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        // The window is in milliseconds, the table in seconds.  Rounding both bounds up keeps
+        // the start inclusive and the end exclusive.
+        long startTime = (WeatherContract.HourlyEntry.getStartTimeFromUri(uri) + 999) / 1000;
+        long endTime = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
+        endTime = endTime == Long.MAX_VALUE ? endTime : (endTime + 999) / 1000;
+
+        // Resolving the location first turns the query into a range scan of the primary key
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.HourlyEntry.TABLE_NAME,
+                projection,
+                sHourlyWindowSelection,
+                new String[]{Long.toString(getLocationId(locationSetting)),
+                        Long.toString(startTime), Long.toString(endTime)},
+                null,
+                null,
+                sortOrder != null ? sortOrder : WeatherContract.HourlyEntry.COLUMN_TIME + " ASC"
+        );
+    }
+
+    private Cursor queryWeather(boolean weatherOnly, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder, String limit) {
+        if (weatherOnly) {
+            return mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder,
+                    limit
+            );
+        }
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+    private static final String[] sLocationColumns = {
+            WeatherContract.LocationEntry.TABLE_NAME + ".",
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_GEO_CELL
+    };
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+    /*
+        True unless every column asked for, and the sort order, can be served by the weather
+        table alone.  A null projection means all columns, which includes the location's.
+     */
+    static boolean needsLocationJoin(String[] projection, String sortOrder) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (referencesLocation(column)) {
+                return true;
+            }
+        }
+        return sortOrder != null && referencesLocation(sortOrder);
+    }
+
+    private static boolean referencesLocation(String expression) {
+        for (String locationColumn : sLocationColumns) {
+            if (expression.contains(locationColumn)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+        Returns the _id of the location with the given setting, or -1 if there is none.
+     */
+    private long getLocationId(String locationSetting) {
+        int generation;
+        synchronized (mLocationIdCache) {
+            Long cached = mLocationIdCache.get(locationSetting);
+            if (cached != null) {
+                return cached;
+            }
+            generation = mLocationIdGeneration;
+        }
+
+        long locationId = -1;
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Misses aren't cached: the location is usually about to be inserted by a sync
+        if (locationId != -1) {
+            synchronized (mLocationIdCache) {
+                if (generation == mLocationIdGeneration) {
+                    mLocationIdCache.put(locationSetting, locationId);
+                }
+            }
+        }
+        return locationId;
+    }
+
+    /*
+        Returns the setting of the location with the given _id, or null if there is none.
+     */
+    private String getLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Marks a location whose weather changed on more than one date
+    private static final long ALL_DATES = -1;
+
+    /*
+        Weather writes don't notify WeatherEntry.CONTENT_URI, which would requery every observer
+        of every location.  Instead they collect the location_id -> date of the rows they touch
+        (ALL_DATES once a location has several) and notify weather/<location>/<date>, or
+        weather/<location> for several dates.  Observers of the location's list are notified
+        either way, since they observe the descendants of their URI, but the detail of another
+        date is left alone.
+     */
+    private static void addChangedWeather(HashMap<Long, Long> changed, ContentValues values) {
+        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                && values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            addChangedWeather(changed,
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+    }
+
+    private static void addChangedWeather(HashMap<Long, Long> changed, long locationId, long date) {
+        Long known = changed.get(locationId);
+        if (known == null) {
+            changed.put(locationId, date);
+        } else if (known != date) {
+            changed.put(locationId, ALL_DATES);
+        }
+    }
+
+    private HashMap<Long, Long> findChangedWeather(SQLiteDatabase db, String selection,
+                                                   String[] selectionArgs) {
+        HashMap<Long, Long> changed = new HashMap<Long, Long>();
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                addChangedWeather(changed, cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changed;
+    }
+
+    private void notifyWeatherChanged(SQLiteDatabase db, HashMap<Long, Long> changed) {
+        for (Map.Entry<Long, Long> entry : changed.entrySet()) {
+            String locationSetting = getLocationSetting(db, entry.getKey());
+            if (locationSetting == null) {
+                // weather of a location that's gone can only be observed through the whole table
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+                continue;
+            }
+            Uri weatherUri = entry.getValue() == ALL_DATES
+                    ? WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting)
+                    : WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                    locationSetting, entry.getValue());
+            getContext().getContentResolver().notifyChange(weatherUri, null);
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.AggregateEntry.buildAggregateNotificationUri(locationSetting),
+                    null);
+        }
+    }
+
+    private void invalidateLocationIds() {
+        synchronized (mLocationIdCache) {
+            mLocationIdCache.clear();
+            mLocationIdGeneration++;
+        }
+    }
+
+    /*
+        Returns the history rows of a location that start within the range, whatever their period.
+     */
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.HistoryEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.HistoryEntry.getEndDateFromUri(uri);
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                sLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
                 null,
+                sortOrder
+        );
+    }
+
+    /*
+        Summarises the weather over the range, one row per location.  Without a projection all
+        the summary columns are returned.
+     */
+    private Cursor getAggregate(Uri uri, boolean byLocation, String[] projection,
+                                String sortOrder) {
+        long startDate = WeatherContract.AggregateEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.AggregateEntry.getEndDateFromUri(uri);
+
+        String selection;
+        String[] selectionArgs;
+        if (byLocation) {
+            selection = sLocationSettingWithWeatherRangeSelection;
+            selectionArgs = new String[]{
+                    WeatherContract.AggregateEntry.getLocationSettingFromUri(uri),
+                    Long.toString(startDate), Long.toString(endDate)};
+        } else {
+            selection = sDateRangeSelection;
+            selectionArgs = new String[]{Long.toString(startDate), Long.toString(endDate)};
+        }
+
+        return sAggregateQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
                 null,
                 sortOrder
         );
     }
 
+    /*
+        Finds the candidates in the grid cells around the point, then keeps the closest one
+        within the radius by great-circle distance.
+     */
+    private Cursor getNearestLocation(Uri uri, String[] projection) {
+        double lat = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double lon = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        double radiusKm = WeatherContract.LocationEntry.getRadiusKmFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+
+        long nearestId = -1;
+        double nearestDistance = radiusKm;
+        Cursor candidates = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                GeoCells.selectionWithin(WeatherContract.LocationEntry.COLUMN_GEO_CELL,
+                        lat, lon, radiusKm),
+                null,
+                null,
+                null,
+                null);
+        try {
+            while (candidates.moveToNext()) {
+                double distance = GeoCells.distanceKm(lat, lon,
+                        candidates.getDouble(1), candidates.getDouble(2));
+                if (distance <= nearestDistance) {
+                    nearestDistance = distance;
+                    nearestId = candidates.getLong(0);
+                }
+            }
+        } finally {
+            candidates.close();
+        }
+
+        return db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                projection,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(nearestId)},
+                null,
+                null,
+                null);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,19 +593,68 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAREST, LOCATION_NEAREST);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE, AGGREGATE);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*", AGGREGATE_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TELEMETRY, SYNC_TELEMETRY);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
         return matcher;
     }
 
+    /*
+        The paths of buildUriMatcher, to label the routes in the provider metrics.
+     */
+    static SparseArray<String> buildRouteNames() {
+        SparseArray<String> names = new SparseArray<String>();
+        names.put(WEATHER, WeatherContract.PATH_WEATHER);
+        names.put(WEATHER_WITH_LOCATION, WeatherContract.PATH_WEATHER + "/*");
+        names.put(WEATHER_WITH_LOCATION_AND_DATE, WeatherContract.PATH_WEATHER + "/*/#");
+        names.put(LOCATION, WeatherContract.PATH_LOCATION);
+        names.put(LOCATION_NEAREST,
+                WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAREST);
+        names.put(HISTORY, WeatherContract.PATH_HISTORY);
+        names.put(HISTORY_WITH_LOCATION, WeatherContract.PATH_HISTORY + "/*");
+        names.put(AGGREGATE, WeatherContract.PATH_AGGREGATE);
+        names.put(AGGREGATE_WITH_LOCATION, WeatherContract.PATH_AGGREGATE + "/*");
+        names.put(SYNC_TELEMETRY, WeatherContract.PATH_SYNC_TELEMETRY);
+        names.put(HOURLY, WeatherContract.PATH_HOURLY);
+        names.put(HOURLY_WITH_LOCATION, WeatherContract.PATH_HOURLY + "/*");
+        return names;
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mMetrics = new ProviderMetrics(ProviderMetrics.isEnabledByDefault(BuildConfig.DEBUG),
+                buildRouteNames());
+        mOpenHelper = new WeatherDbHelper(getContext(), mMetrics.getCursorFactory());
         return true;
     }
 
+    /*
+        Prints the per-route latencies and the slow operation log, see ProviderMetrics.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            mMetrics.reset();
+            writer.println("Provider metrics reset");
+            return;
+        }
+        mMetrics.dump(writer);
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +676,19 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case AGGREGATE:
+            case AGGREGATE_WITH_LOCATION:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case SYNC_TELEMETRY:
+                return WeatherContract.SyncTelemetryEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +697,26 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        if (!mMetrics.isEnabled()) {
+            return query(match, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+        // Counting fills the cursor window, so the time covers running the query and not just
+        // preparing it
+        int rows = cursor.getCount();
+        mMetrics.record(ProviderMetrics.OP_QUERY, match, System.nanoTime() - start, rows,
+                selection, selectionArgs, mOpenHelper.getReadableDatabase(), cursor);
+        return cursor;
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -213,6 +754,70 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                retCursor = getNearestLocation(uri, projection);
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "aggregate/*"
+            case AGGREGATE_WITH_LOCATION: {
+                retCursor = getAggregate(uri, true, projection, sortOrder);
+                break;
+            }
+            // "aggregate"
+            case AGGREGATE: {
+                retCursor = getAggregate(uri, false, projection, sortOrder);
+                break;
+            }
+            // "sync_telemetry"
+            case SYNC_TELEMETRY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncTelemetryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -226,8 +831,19 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        if (!mMetrics.isEnabled()) {
+            return insert(match, uri, values);
+        }
+        long start = System.nanoTime();
+        Uri returnUri = insert(match, uri, values);
+        mMetrics.record(ProviderMetrics.OP_INSERT, match, System.nanoTime() - start, 1,
+                null, null, null, null);
+        return returnUri;
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         Uri returnUri;
 
         switch (match) {
@@ -238,16 +854,34 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                HashMap<Long, Long> changed = new HashMap<Long, Long>();
+                addChangedWeather(changed, values);
+                notifyWeatherChanged(db, changed);
+                return returnUri;
             }
             case LOCATION: {
+                computeGeoCell(values);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                invalidateLocationIds();
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_TELEMETRY: {
+                long _id = db.insert(WeatherContract.SyncTelemetryEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // keep a rolling window of the most recent syncs
+                db.delete(WeatherContract.SyncTelemetryEntry.TABLE_NAME,
+                        WeatherContract.SyncTelemetryEntry._ID + " <= ?",
+                        new String[]{Long.toString(
+                                _id - WeatherContract.SyncTelemetryEntry.MAX_ROWS)});
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -257,19 +891,48 @@ public class WeatherProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        if (!mMetrics.isEnabled()) {
+            return delete(match, uri, selection, selectionArgs);
+        }
+        long start = System.nanoTime();
+        int rowsDeleted = delete(match, uri, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.OP_DELETE, match, System.nanoTime() - start, rowsDeleted,
+                selection, selectionArgs, null, null);
+        return rowsDeleted;
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
+                HashMap<Long, Long> changed = findChangedWeather(db, selection, selectionArgs);
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+                if (rowsDeleted != 0) {
+                    notifyWeatherChanged(db, changed);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                invalidateLocationIds();
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SYNC_TELEMETRY:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncTelemetryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -289,22 +952,58 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    private void computeGeoCell(ContentValues values) {
+        // keep the grid cell in step with the coordinates
+        if (values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                && values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG)) {
+            double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+            double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+            values.put(WeatherContract.LocationEntry.COLUMN_GEO_CELL, GeoCells.cellFor(lat, lon));
+        }
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        if (!mMetrics.isEnabled()) {
+            return update(match, uri, values, selection, selectionArgs);
+        }
+        long start = System.nanoTime();
+        int rowsUpdated = update(match, uri, values, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.OP_UPDATE, match, System.nanoTime() - start, rowsUpdated,
+                selection, selectionArgs, null, null);
+        return rowsUpdated;
+    }
+
+    private int update(int match, Uri uri, ContentValues values, String selection,
+                       String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
+                HashMap<Long, Long> changed = findChangedWeather(db, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
-                break;
+                if (rowsUpdated == 0) {
+                    return rowsUpdated;
+                }
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // rows moved to another location or date, which may be observed anywhere
+                    getContext().getContentResolver().notifyChange(uri, null);
+                } else {
+                    notifyWeatherChanged(db, changed);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
+                computeGeoCell(values);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                invalidateLocationIds();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -317,31 +1016,210 @@ public class WeatherProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        if (!mMetrics.isEnabled()) {
+            return bulkInsert(match, uri, values);
+        }
+        long start = System.nanoTime();
+        int returnCount = bulkInsert(match, uri, values);
+        mMetrics.record(ProviderMetrics.OP_BULK_INSERT, match, System.nanoTime() - start,
+                returnCount, null, null, null, null);
+        return returnCount;
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                HashMap<Long, Long> changed = new HashMap<Long, Long>();
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            addChangedWeather(changed, value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyWeatherChanged(db, changed);
                 return returnCount;
+            case HOURLY:
+                return bulkInsertHourly(db, uri, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Each batch is a fresh forecast, so the points of its locations from before the batch are
+        dropped in the same transaction: they are in the past, and the table stays at about one
+        forecast per location without a separate cleanup.
+     */
+    private int bulkInsertHourly(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        HashMap<Long, Long> firstTimes = new HashMap<Long, Long>();
+        for (ContentValues value : values) {
+            long locationId = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+            long time = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME);
+            Long first = firstTimes.get(locationId);
+            if (first == null || time < first) {
+                firstTimes.put(locationId, time);
+            }
+        }
+
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (Map.Entry<Long, Long> entry : firstTimes.entrySet()) {
+                db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                        new String[]{entry.getKey().toString(), entry.getValue().toString()});
+            }
+            for (ContentValues value : values) {
+                if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (returnCount != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return returnCount;
+    }
+
+    /*
+        METHOD_ARCHIVE_WEATHER moves the weather up to the date in arg into the history and
+        compacts it, all in one transaction so readers never see a day in both tables.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!WeatherContract.METHOD_ARCHIVE_WEATHER.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        long lastExpiredDate = WeatherContract.normalizeDate(Long.parseLong(arg));
+        long now = extras != null && extras.containsKey(WeatherContract.EXTRA_NOW)
+                ? extras.getLong(WeatherContract.EXTRA_NOW) : System.currentTimeMillis();
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsChanged;
+        HashMap<Long, String> archivedLocations = new HashMap<Long, String>();
+        db.beginTransaction();
+        try {
+            for (Long locationId : findChangedWeather(db,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(lastExpiredDate)}).keySet()) {
+                archivedLocations.put(locationId, getLocationSetting(db, locationId));
+            }
+            rowsChanged = new HistoryCompactor().compact(db, lastExpiredDate, now);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // The archived days are all before today, which no forecast list shows, so only the
+        // aggregates over them and the history itself have changed
+        for (String locationSetting : archivedLocations.values()) {
+            if (locationSetting != null) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.AggregateEntry.buildAggregateNotificationUri(
+                                locationSetting), null);
+            }
+        }
+        if (rowsChanged != 0) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.HistoryEntry.CONTENT_URI, null);
+        }
+        return null;
+    }
+
+    // The columns of the forecast blob, in ForecastBlob.Writer.addDay order
+    static final String[] BLOB_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final PipeDataWriter<byte[]> sBlobWriter = new PipeDataWriter<byte[]>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, byte[] blob) {
+            FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+            try {
+                out.write(blob);
+            } catch (IOException e) {
+                // The reader went away
+                Log.w(LOG_TAG, "Error writing the forecast of " + uri, e);
+            } finally {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error closing the forecast pipe", e);
+                }
+            }
+        }
+    };
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) == WEATHER_WITH_LOCATION && ClipDescription.compareMimeTypes(
+                WeatherContract.WeatherEntry.BLOB_MIME_TYPE, mimeTypeFilter)) {
+            return new String[]{WeatherContract.WeatherEntry.BLOB_MIME_TYPE};
+        }
+        return null;
+    }
+
+    /*
+        weather/* can be opened as WeatherEntry.BLOB_MIME_TYPE, which streams the forecast the
+        query would return as a ForecastBlob through a pipe.  The rows are read and encoded
+        here, so the caller gets a few dozen bytes a day instead of a cursor window.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != WEATHER_WITH_LOCATION || !ClipDescription.compareMimeTypes(
+                WeatherContract.WeatherEntry.BLOB_MIME_TYPE, mimeTypeFilter)) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        byte[] blob;
+        Cursor cursor = getWeatherByLocationSetting(uri, BLOB_COLUMNS,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            blob = encodeForecast(cursor, System.currentTimeMillis());
+        } finally {
+            cursor.close();
+        }
+        return new AssetFileDescriptor(
+                openPipeHelper(uri, WeatherContract.WeatherEntry.BLOB_MIME_TYPE, opts, blob,
+                        sBlobWriter),
+                0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /*
+        Encodes the rows of a cursor over BLOB_COLUMNS.
+     */
+    static byte[] encodeForecast(Cursor cursor, long now) {
+        ForecastBlob.Writer writer = new ForecastBlob.Writer(cursor.getCount(), now);
+        while (cursor.moveToNext()) {
+            writer.addDay(cursor.getLong(0), cursor.getInt(1), cursor.getDouble(2),
+                    cursor.getDouble(3), cursor.getDouble(4), cursor.getDouble(5),
+                    cursor.getDouble(6), cursor.getDouble(7));
+        }
+        return writer.toByteArray();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.core.PackedWeather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Reads an OpenWeatherMap 3-hour forecast straight off the connection and writes it to the
+ * hourly table.  The response is consumed token by token, so neither the body nor a JSON tree
+ * of it is ever held in memory: each point becomes its row's values as it is read, and the
+ * rows go to the provider in one bulk insert, which replaces the location's old forecast.
+ */
+class HourlyForecastIngest {
+    private static final String LOG_TAG = HourlyForecastIngest.class.getSimpleName();
+
+    // Five days of 3-hour steps, all the API offers
+    static final int MAX_POINTS = 40;
+
+    // These are the names of the JSON objects that need to be extracted.
+    private static final String OWM_MESSAGE_CODE = "cod";
+    private static final String OWM_LIST = "list";
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private HourlyForecastIngest() {
+    }
+
+    /**
+     * @return the _id of the location with the given setting, or -1 if there is none
+     */
+    static long getLocationId(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Parses the response in {@code in} and stores its points for the location.  Nothing is
+     * stored if the response has a "cod" other than 200.
+     *
+     * @return the number of points stored
+     * @throws IOException if reading fails or the response isn't a forecast
+     */
+    static int ingest(ContentResolver resolver, InputStream in, long locationId)
+            throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int code = HttpURLConnection.HTTP_OK;
+            ArrayList<ContentValues> points = new ArrayList<ContentValues>(MAX_POINTS);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // A string in this API, but a number in others
+                    code = reader.peek() == JsonToken.STRING
+                            ? Integer.parseInt(reader.nextString()) : reader.nextInt();
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        points.add(readPoint(reader, locationId));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.d(LOG_TAG, "No hourly forecast, cod " + code);
+                return 0;
+            }
+            if (points.isEmpty()) {
+                return 0;
+            }
+            return resolver.bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                    points.toArray(new ContentValues[points.size()]));
+        } catch (IllegalStateException e) {
+            // JsonReader reports an unexpected structure this way
+            throw new IOException("Not a 3-hour forecast", e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a 3-hour forecast", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static ContentValues readPoint(JsonReader reader, long locationId)
+            throws IOException {
+        long time = 0;
+        double temperature = 0;
+        double pressure = 0;
+        double humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                time = reader.nextLong();
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(field)) {
+                        temperature = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(field)) {
+                        pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(field)) {
+                        humidity = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first, main, condition is kept
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first) {
+                        weatherId = readWeatherId(reader);
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (OWM_WINDSPEED.equals(field)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(field)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        ContentValues values = new ContentValues(5);
+        values.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TIME, time);
+        values.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                PackedWeather.scaleTemperature(temperature));
+        values.put(WeatherContract.HourlyEntry.COLUMN_PACKED,
+                PackedWeather.pack(humidity, pressure, windSpeed, windDirection));
+        return values;
+    }
+
+    private static int readWeatherId(JsonReader reader) throws IOException {
+        int weatherId = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                weatherId = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return weatherId;
+    }
+}
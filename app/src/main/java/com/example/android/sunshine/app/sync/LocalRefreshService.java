@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.core.ForecastBlob;
+
+/**
+ * IntentService which re-renders everything we display outside of the app (widgets, the
+ * wearable and the weather notification) from the data already stored, through the
+ * {@link PostSyncDispatcher}.
+ * <p/>
+ * The database always stores metric values, so a change of units only affects how the data is
+ * formatted and never needs a network sync.
+ */
+public class LocalRefreshService extends IntentService {
+    public static final String ACTION_UNITS_CHANGED =
+            "com.example.android.sunshine.app.ACTION_UNITS_CHANGED";
+
+    private static final long REFRESH_TIMEOUT_MILLIS = 30 * 1000;
+
+    public LocalRefreshService() {
+        super(LocalRefreshService.class.getSimpleName());
+    }
+
+    public static void startUnitsChanged(Context context) {
+        context.startService(new Intent(context, LocalRefreshService.class)
+                .setAction(ACTION_UNITS_CHANGED));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null || !ACTION_UNITS_CHANGED.equals(intent.getAction())) {
+            return;
+        }
+
+        String location = Utility.getPreferredLocation(this);
+        ForecastBlob forecast = ForecastSnapshot.read(this, location, System.currentTimeMillis());
+        if (forecast == null) {
+            return;
+        }
+        PostSyncDispatcher dispatcher = PostSyncDispatcher.getInstance();
+        dispatcher.dispatch(this, location, forecast, PostSyncDispatcher.REASON_UNITS_CHANGED);
+        // Keeps the service, and so the process, alive until the consumers are done
+        dispatcher.awaitIdle(REFRESH_TIMEOUT_MILLIS);
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.art.WeatherArtCache;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetIntentService;
+import com.example.android.sunshine.core.ForecastBlob;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands a new forecast to everything we display outside of the app: the widgets, the weather
+ * notification, the wearable and Muzei.  After a sync it also has the art of the forecast's
+ * conditions downloaded, so the app and the widgets find it cached.
+ * <p/>
+ * All of them get the same {@link ForecastBlob}, so the forecast is read once per sync instead
+ * of once per consumer, and they run on a small shared pool instead of an IntentService (and a
+ * thread) each.  The most visible consumers run first.  A newer dispatch for the same reason
+ * cancels what is left of the previous one, whose forecast is out of date by then.
+ * <p/>
+ * The pool's threads don't keep the process alive, so whoever dispatches waits with
+ * {@link #awaitIdle(long)} before giving up its wake lock or service.
+ */
+public class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({REASON_SYNC, REASON_UNITS_CHANGED})
+    public @interface Reason {
+    }
+
+    // A sync stored a new forecast
+    public static final int REASON_SYNC = 0;
+    // Only the way the forecast is displayed has changed, so Muzei is left alone and the
+    // notification is only re-posted
+    public static final int REASON_UNITS_CHANGED = 1;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_WIDGETS, PRIORITY_NOTIFICATION, PRIORITY_ART, PRIORITY_WEARABLE,
+            PRIORITY_MUZEI})
+    @interface Priority {
+    }
+
+    // Lower values run first
+    static final int PRIORITY_WIDGETS = 0;
+    static final int PRIORITY_NOTIFICATION = 1;
+    static final int PRIORITY_ART = 2;
+    static final int PRIORITY_WEARABLE = 3;
+    static final int PRIORITY_MUZEI = 4;
+
+    // Enough to overlap a consumer waiting on the network with one that isn't, without the
+    // fan-out competing with the app for the CPU
+    private static final int THREAD_COUNT = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Art only needs downloading the first time a condition comes up, but a slow image host
+    // mustn't hold up the sync for long
+    private static final long ART_PREFETCH_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final PostSyncDispatcher sInstance = new PostSyncDispatcher();
+
+    private final ThreadPoolExecutor mExecutor;
+    // The latest task of each reason and priority, older ones are cancelled
+    private final int[][] mGenerations = new int[REASON_UNITS_CHANGED + 1][PRIORITY_MUZEI + 1];
+    private long mSequence;
+    private int mPending;
+
+    PostSyncDispatcher() {
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, LOG_TAG + " #" + ++mCount);
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static PostSyncDispatcher getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Queues the consumers the reason calls for, cancelling those of earlier dispatches for the
+     * same reason that haven't run yet and would be run again by this one.
+     *
+     * @param forecast the forecast of the preferred location, which must not change anymore
+     * @return the dispatch, which tells how long its consumers took
+     */
+    public Dispatch dispatch(Context context, String locationSetting, ForecastBlob forecast,
+                             @Reason int reason) {
+        Context appContext = context.getApplicationContext();
+        Dispatch dispatch = new Dispatch();
+        execute(dispatch, new Task(appContext, locationSetting, forecast, reason,
+                PRIORITY_WIDGETS) {
+            @Override
+            void consume() {
+                TodayWidgetIntentService.updateWidgets(context, forecast);
+                DetailWidgetProvider.notifyDataChanged(context);
+            }
+        });
+        execute(dispatch, new Task(appContext, locationSetting, forecast, reason,
+                PRIORITY_NOTIFICATION) {
+            @Override
+            void consume() {
+                SunshineSyncAdapter.notifyWeather(context, forecast,
+                        reason == REASON_UNITS_CHANGED);
+            }
+        });
+        if (reason == REASON_SYNC) {
+            execute(dispatch, new Task(appContext, locationSetting, forecast, reason,
+                    PRIORITY_ART) {
+                @Override
+                void consume() {
+                    int[] weatherIds = new int[forecast.getDayCount()];
+                    for (int day = 0; day < weatherIds.length; day++) {
+                        weatherIds[day] = forecast.getWeatherId(day);
+                    }
+                    WeatherArtCache.getInstance(context).prefetch(weatherIds,
+                            ART_PREFETCH_TIMEOUT_MILLIS);
+                }
+            });
+        }
+        execute(dispatch, new Task(appContext, locationSetting, forecast, reason,
+                PRIORITY_WEARABLE) {
+            @Override
+            void consume() {
+                WearableForecastSender.send(this);
+            }
+        });
+        // Muzei is only compatible with Jelly Bean MR1+ devices, and the wallpaper doesn't
+        // depend on the units
+        if (reason == REASON_SYNC && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            execute(dispatch, new Task(appContext, locationSetting, forecast, reason,
+                    PRIORITY_MUZEI) {
+                @Override
+                void consume() {
+                    // Artwork can only be published from within the art source's own service
+                    SunshineSyncAdapter.updateMuzei(context);
+                }
+            });
+        }
+        return dispatch;
+    }
+
+    private void execute(Dispatch dispatch, Task task) {
+        task.mDispatch = dispatch;
+        dispatch.onTaskQueued();
+        synchronized (this) {
+            // Each consumer is only cancelled by a newer task of its own for the same reason, so
+            // a units change doesn't cancel the new-forecast notification or the wallpaper
+            // update of the sync before it
+            task.mGeneration = ++mGenerations[task.reason][task.mPriority];
+            task.mSequence = mSequence++;
+            mPending++;
+        }
+        mExecutor.execute(task);
+    }
+
+    private synchronized void onTaskDone() {
+        mPending--;
+        if (mPending == 0) {
+            notifyAll();
+        }
+    }
+
+    private synchronized boolean isCancelled(Task task) {
+        return task.mGeneration != mGenerations[task.reason][task.mPriority];
+    }
+
+    /**
+     * Waits for the queued consumers to finish.  The sync calls this before returning, so the
+     * process keeps the sync's wake lock and priority while they run.
+     *
+     * @return false if they didn't finish in time
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        while (mPending > 0) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The consumers queued by one call to {@link #dispatch}.
+     */
+    public static class Dispatch {
+        private final long mStartElapsed = SystemClock.elapsedRealtime();
+        private int mRemaining;
+        private long mElapsedMillis = -1;
+
+        synchronized void onTaskQueued() {
+            mRemaining++;
+        }
+
+        synchronized void onTaskDone() {
+            if (--mRemaining == 0) {
+                mElapsedMillis = SystemClock.elapsedRealtime() - mStartElapsed;
+            }
+        }
+
+        /**
+         * @return the time from queueing the consumers until the last of them finished or was
+         * cancelled, or until now if some are still running
+         */
+        public synchronized long getElapsedMillis() {
+            return mElapsedMillis != -1 ? mElapsedMillis
+                    : SystemClock.elapsedRealtime() - mStartElapsed;
+        }
+    }
+
+    /**
+     * One consumer of one dispatch.
+     */
+    abstract class Task implements Runnable, Comparable<Task> {
+        final Context context;
+        final String locationSetting;
+        final ForecastBlob forecast;
+        final @Reason int reason;
+
+        private final @Priority int mPriority;
+        private Dispatch mDispatch;
+        private int mGeneration;
+        private long mSequence;
+
+        Task(Context context, String locationSetting, ForecastBlob forecast, @Reason int reason,
+             @Priority int priority) {
+            this.context = context;
+            this.locationSetting = locationSetting;
+            this.forecast = forecast;
+            this.reason = reason;
+            mPriority = priority;
+        }
+
+        abstract void consume() throws Exception;
+
+        /**
+         * Long running consumers check this again before doing anything visible.
+         */
+        boolean isCancelled() {
+            return PostSyncDispatcher.this.isCancelled(this);
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (isCancelled()) {
+                    Log.d(LOG_TAG, "Skipping a consumer of a superseded forecast");
+                    return;
+                }
+                consume();
+            } catch (Exception e) {
+                // One consumer failing must not keep the others from running
+                Log.e(LOG_TAG, "Error dispatching the forecast of " + locationSetting, e);
+            } finally {
+                mDispatch.onTaskDone();
+                onTaskDone();
+            }
+        }
+    }
+}
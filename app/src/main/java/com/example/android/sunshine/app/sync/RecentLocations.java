@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Most recently used locations, most recent first.  Their forecasts are refreshed during
+ * periodic syncs so that switching back to one of them can be served from the database.
+ */
+public class RecentLocations {
+    private static final String LOG_TAG = RecentLocations.class.getSimpleName();
+
+    // Number of locations remembered, including the current one
+    static final int MAX_RECENT = 4;
+    // Number of recent locations refreshed on each periodic sync
+    static final int MAX_PREFETCH = 2;
+
+    private static final String JSON_SETTING = "setting";
+    private static final String JSON_LATITUDE = "lat";
+    private static final String JSON_LONGITUDE = "lon";
+
+    public static final class Entry {
+        public final String locationSetting;
+        public final boolean hasLatLon;
+        public final float latitude;
+        public final float longitude;
+
+        Entry(String locationSetting, boolean hasLatLon, float latitude, float longitude) {
+            this.locationSetting = locationSetting;
+            this.hasLatLon = hasLatLon;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    public static List<Entry> get(Context context) {
+        List<Entry> entries = new ArrayList<Entry>();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String json = prefs.getString(context.getString(R.string.pref_recent_locations), null);
+        if (json == null) {
+            return entries;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject object = array.getJSONObject(i);
+                boolean hasLatLon = object.has(JSON_LATITUDE) && object.has(JSON_LONGITUDE);
+                entries.add(new Entry(object.getString(JSON_SETTING), hasLatLon,
+                        hasLatLon ? (float) object.getDouble(JSON_LATITUDE) : 0f,
+                        hasLatLon ? (float) object.getDouble(JSON_LONGITUDE) : 0f));
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Discarding unreadable recent locations", e);
+        }
+        return entries;
+    }
+
+    /**
+     * Moves the location to the front of the list, dropping the oldest one if necessary.
+     */
+    public static void add(Context context, String locationSetting, boolean hasLatLon,
+                           float latitude, float longitude) {
+        List<Entry> entries = get(context);
+        JSONArray array = new JSONArray();
+        try {
+            JSONObject first = new JSONObject().put(JSON_SETTING, locationSetting);
+            if (hasLatLon) {
+                first.put(JSON_LATITUDE, latitude).put(JSON_LONGITUDE, longitude);
+            }
+            array.put(first);
+            for (Entry entry : entries) {
+                if (array.length() >= MAX_RECENT) {
+                    break;
+                }
+                if (entry.locationSetting.equals(locationSetting)) {
+                    continue;
+                }
+                JSONObject object = new JSONObject().put(JSON_SETTING, entry.locationSetting);
+                if (entry.hasLatLon) {
+                    object.put(JSON_LATITUDE, entry.latitude).put(JSON_LONGITUDE, entry.longitude);
+                }
+                array.put(object);
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return;
+        }
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(context.getString(R.string.pref_recent_locations), array.toString())
+                .apply();
+    }
+}
@@ -2,7 +2,7 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -18,28 +18,31 @@ import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.service.notification.StatusBarNotification;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.art.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
+import com.example.android.sunshine.core.ForecastBlob;
+import com.example.android.sunshine.core.OwmForecast;
+import com.example.android.sunshine.core.OwmParser;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -50,10 +53,10 @@ import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
-    public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    public static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED = "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
     // 60 seconds (1 minute) * 180 = 3 hours
@@ -61,19 +64,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Counts the weather notifications posted, so late art doesn't land on a newer one
+    private static final AtomicInteger sNotificationGeneration = new AtomicInteger();
+    // How long a sync waits for the widgets, notification and wearable to catch up
+    private static final long FANOUT_TIMEOUT_MILLIS = 30 * 1000;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    static final String OWM_BASE_URL = "http://api.openweathermap.org/data/2.5/";
+    private static final String DAILY_FORECAST_PATH = "forecast/daily?";
+    private static final String HOURLY_FORECAST_PATH = "forecast?";
+    // Load tests point this at the stand-in server in the owmserver module
+    private static volatile String sOwmBaseUrl = OWM_BASE_URL;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -90,6 +90,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         super(context, autoInitialize);
     }
 
+    /**
+     * Sends forecast requests to another server, for tests.
+     *
+     * @param baseUrl The URL the forecast paths are appended to, ending in /data/2.5/, or null
+     *                for OpenWeatherMap
+     */
+    static void setOwmBaseUrl(String baseUrl) {
+        sOwmBaseUrl = baseUrl != null ? baseUrl : OWM_BASE_URL;
+    }
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
@@ -97,70 +107,265 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
+
+        // Periodic syncs may be pushed back while we are on a metered network or low on battery
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        int deferralSeconds = SyncPolicy.getInstance(context).getDeferralSeconds(manual);
+        if (deferralSeconds > 0) {
+            syncResult.delayUntil = System.currentTimeMillis() / 1000 + deferralSeconds;
+            Log.d(LOG_TAG, "Sync deferred by " + deferralSeconds + " seconds");
+            return;
+        }
+
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        boolean useLatLon = Utility.isLocationLatLonAvailable(context);
+        float locationLatitude = Utility.getLocationLatitude(context);
+        float locationLongitude = Utility.getLocationLongitude(context);
 
+        SyncRegistry registry = SyncRegistry.getInstance();
+        registry.onSyncStarted(locationQuery);
+        SyncTrace trace = new SyncTrace(locationQuery, true, manual);
+        SyncBackoff backoff = SyncBackoff.getInstance(context);
+        String host = getOwmHost();
+        boolean synced = false;
+
+        try {
+            long blockedMillis = backoff.getBlockedMillis(host);
+            if (blockedMillis > 0) {
+                // The server has been failing, so even a manual sync stays away from it until
+                // the backoff has passed rather than add to its load.  Nothing was asked of the
+                // server, so the location status is left as it is: a location that was never
+                // tried mustn't show as server down.
+                Log.d(LOG_TAG, "Sync blocked for another " + blockedMillis / 1000 + " s");
+                syncResult.delayUntil = (System.currentTimeMillis() + blockedMillis) / 1000;
+                return;
+            }
+            String forecastJsonStr = downloadForecast(locationQuery, useLatLon,
+                    locationLatitude, locationLongitude, trace);
+            if (forecastJsonStr == null) {
+                // Stream was empty.  No point in parsing.
+                onServerUnavailable(backoff, host, 0, syncResult);
+                trace.setOutcome(LOCATION_STATUS_SERVER_DOWN);
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return;
+            }
+            if (registry.isSuperseded(locationQuery)) {
+                // The user picked another location while we were downloading; that sync
+                // will report the result, so don't write anything for this one.
+                Log.d(LOG_TAG, "Sync for " + locationQuery + " superseded, dropping result");
+                return;
+            }
+            @LocationStatus int status = getWeatherDataFromJson(forecastJsonStr, locationQuery,
+                    true, trace, syncResult);
+            onForecastParsed(backoff, host, status, syncResult);
+            if (status == LOCATION_STATUS_OK) {
+                RecentLocations.add(context, locationQuery, useLatLon,
+                        locationLatitude, locationLongitude);
+                synced = true;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            onRequestFailed(backoff, host, e, syncResult);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.  A superseded (cancelled) sync doesn't get to report its failure.
+            if (!registry.isSuperseded(locationQuery)) {
+                trace.setOutcome(LOCATION_STATUS_SERVER_DOWN);
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            }
+            return;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            // The server answered, only not with a forecast we can read
+            backoff.onSuccess(host);
+            syncResult.stats.numParseExceptions++;
+            if (!registry.isSuperseded(locationQuery)) {
+                trace.setOutcome(LOCATION_STATUS_SERVER_INVALID);
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            }
+            return;
+        } finally {
+            registry.onSyncFinished(locationQuery);
+            trace.finish();
+            // A stored forecast's trace is saved once the consumers it was handed to are done,
+            // so it has the time they took
+            if (!synced) {
+                trace.save(context);
+            }
+        }
+
+        try {
+            // The hourly forecast is extra detail for the location on screen, so it is only
+            // fetched once the daily one made it, and its failures don't change the location
+            // status
+            if (synced && !registry.isSuperseded(locationQuery)) {
+                syncHourlyForecast(locationQuery, useLatLon, locationLatitude, locationLongitude,
+                        backoff, host);
+            }
+
+            // Periodic syncs also refresh the locations the user recently switched away from,
+            // so that switching back can be served from the database straight away.
+            if (!manual) {
+                prefetchRecentLocations(locationQuery, backoff, host, syncResult);
+            }
+
+            // The framework holds a wake lock only until this returns
+            if (!PostSyncDispatcher.getInstance().awaitIdle(FANOUT_TIMEOUT_MILLIS)) {
+                Log.w(LOG_TAG, "Post-sync consumers still running after " +
+                        FANOUT_TIMEOUT_MILLIS + " ms");
+            }
+        } finally {
+            if (synced) {
+                trace.save(context);
+            }
+        }
+    }
+
+    /**
+     * @return the host the forecast requests go to, which is what {@link SyncBackoff} tracks
+     */
+    private static String getOwmHost() {
+        return Uri.parse(sOwmBaseUrl).getAuthority();
+    }
+
+    /**
+     * Records a failure worth retrying in the backoff.  For a request the sync can't do without,
+     * when {@code syncResult} is given, it also counts as a soft error, which the framework
+     * retries with backoff of its own, and holds the next sync off until the backoff has passed.
+     */
+    private static void onServerUnavailable(SyncBackoff backoff, String host,
+                                            long retryAfterMillis, SyncResult syncResult) {
+        long delayMillis = backoff.onFailure(host, retryAfterMillis);
+        if (syncResult != null) {
+            syncResult.stats.numIoExceptions++;
+            syncResult.delayUntil = Math.max(syncResult.delayUntil,
+                    (System.currentTimeMillis() + delayMillis) / 1000);
+        }
+    }
+
+    /**
+     * Sorts out a request to the weather server that failed with an exception.  Network errors,
+     * server errors and 429 are worth retrying.  Other error statuses mean the server answered
+     * but won't take the request as it is, so asking again soon won't help: they count as hard
+     * errors, which the framework doesn't retry before the next periodic sync.
+     *
+     * @param syncResult null for a request the sync can do without
+     */
+    private static void onRequestFailed(SyncBackoff backoff, String host, IOException e,
+                                        SyncResult syncResult) {
+        if (!(e instanceof HttpStatusException)) {
+            onServerUnavailable(backoff, host, 0, syncResult);
+            return;
+        }
+        HttpStatusException status = (HttpStatusException) e;
+        if (status.isRetryable()) {
+            onServerUnavailable(backoff, host, status.retryAfterMillis, syncResult);
+            return;
+        }
+        backoff.onSuccess(host);
+        if (syncResult != null) {
+            if (status.code == HttpURLConnection.HTTP_UNAUTHORIZED
+                    || status.code == HttpURLConnection.HTTP_FORBIDDEN) {
+                syncResult.stats.numAuthExceptions++;
+            } else {
+                syncResult.stats.numParseExceptions++;
+            }
+        }
+    }
+
+    /**
+     * Records what came of a forecast the server sent, like {@link #onRequestFailed}.  An error
+     * code in the body means the server is up but what is behind it isn't, which is worth
+     * retrying; a forecast that can't be parsed is a hard error, but the host did answer.
+     */
+    private static void onForecastParsed(SyncBackoff backoff, String host,
+                                         @LocationStatus int status, SyncResult syncResult) {
+        switch (status) {
+            case LOCATION_STATUS_SERVER_DOWN:
+                onServerUnavailable(backoff, host, 0, syncResult);
+                break;
+            case LOCATION_STATUS_SERVER_INVALID:
+                backoff.onSuccess(host);
+                if (syncResult != null) {
+                    syncResult.stats.numParseExceptions++;
+                }
+                break;
+            default:
+                backoff.onSuccess(host);
+                break;
+        }
+    }
+
+    /**
+     * Throws if the server answered the request with an error status.
+     */
+    private static void checkResponse(HttpURLConnection urlConnection) throws IOException {
+        int code = urlConnection.getResponseCode();
+        if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new HttpStatusException(code, SyncBackoff.parseRetryAfterMillis(
+                    urlConnection.getHeaderField("Retry-After"), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * An error status from the weather server.
+     */
+    static class HttpStatusException extends IOException {
+        // Too Many Requests, which HttpURLConnection has no constant for
+        static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+        final int code;
+        final long retryAfterMillis;
+
+        HttpStatusException(int code, long retryAfterMillis) {
+            super("HTTP " + code);
+            this.code = code;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        boolean isRetryable() {
+            return code == HTTP_TOO_MANY_REQUESTS
+                    || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * Downloads the forecast for a location from OpenWeatherMap.
+     *
+     * @param locationQuery The location string to query for, if no lat/lon is available
+     * @param useLatLon     Whether to query by latitude and longitude instead
+     * @param trace         Records the connect and download times and the size of the response
+     * @return the raw JSON response, or null if the server returned nothing
+     * @throws HttpStatusException if the server answered with an error status
+     */
+    private String downloadForecast(String locationQuery, boolean useLatLon,
+                                    float latitude, float longitude, SyncTrace trace)
+            throws IOException {
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
         BufferedReader reader = null;
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
         int numDays = 14;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
-
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
+            URL url = buildForecastUrl(DAILY_FORECAST_PATH, locationQuery, useLatLon,
+                    latitude, longitude, numDays);
 
             // Create the request to OpenWeatherMap, and open the connection
+            trace.beginPhase(SyncTrace.PHASE_CONNECT);
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
             urlConnection.connect();
+            trace.beginPhase(SyncTrace.PHASE_DOWNLOAD);
+            checkResponse(urlConnection);
 
             // Read the input stream into a String
             InputStream inputStream = urlConnection.getInputStream();
             StringBuffer buffer = new StringBuffer();
             if (inputStream == null) {
                 // Nothing to do.
-                return;
+                return null;
             }
             reader = new BufferedReader(new InputStreamReader(inputStream));
 
@@ -171,24 +376,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // buffer for debugging.
                 buffer.append(line + "\n");
             }
+            trace.addBytes(buffer.length());
 
             if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+                return null;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return buffer.toString();
         } finally {
+            trace.endPhase();
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
@@ -200,87 +395,191 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 }
             }
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Builds the URL of an OpenWeatherMap forecast query.
+     *
+     * @param path  The forecast endpoint, relative to the base URL
+     * @param count The number of days, or of 3-hour steps, to ask for
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
+    private static URL buildForecastUrl(String path, String locationQuery, boolean useLatLon,
+                                        float latitude, float longitude, int count)
+            throws IOException {
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        String format = "json";
+        String units = "metric";
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        Uri.Builder uriBuilder = Uri.parse(sOwmBaseUrl + path).buildUpon();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (useLatLon) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(longitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(count))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        return new URL(builtUri.toString());
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Downloads the 3-hour forecast of a location and streams it into the hourly table, see
+     * {@link HourlyForecastIngest}.  Failures only feed the backoff, they don't fail the sync.
+     */
+    private void syncHourlyForecast(String locationQuery, boolean useLatLon,
+                                    float latitude, float longitude,
+                                    SyncBackoff backoff, String host) {
+        HttpURLConnection urlConnection = null;
+        try {
+            if (backoff.getBlockedMillis(host) > 0) {
+                return;
+            }
+            long locationId = HourlyForecastIngest.getLocationId(
+                    getContext().getContentResolver(), locationQuery);
+            if (locationId == -1) {
+                return;
+            }
+            URL url = buildForecastUrl(HOURLY_FORECAST_PATH, locationQuery, useLatLon,
+                    latitude, longitude, HourlyForecastIngest.MAX_POINTS);
+            long start = System.currentTimeMillis();
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            checkResponse(urlConnection);
+            int inserted = HourlyForecastIngest.ingest(getContext().getContentResolver(),
+                    urlConnection.getInputStream(), locationId);
+            Log.d(LOG_TAG, "Hourly sync complete. " + inserted + " Inserted for " +
+                    locationQuery + " in " + (System.currentTimeMillis() - start) + " ms");
+            backoff.onSuccess(host);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error syncing the hourly forecast for " + locationQuery, e);
+            onRequestFailed(backoff, host, e, null);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Refreshes the cached forecasts of the locations the user recently used.  Failures only
+     * feed the backoff: these locations aren't displayed, so they have no location status, and
+     * they don't fail the sync.  The forecasts stored are counted in {@code syncResult}.
+     *
+     * @param preferredLocation The location that was just synced, which is skipped
+     */
+    private void prefetchRecentLocations(String preferredLocation, SyncBackoff backoff,
+                                         String host, SyncResult syncResult) {
+        int prefetched = 0;
+        for (RecentLocations.Entry entry : RecentLocations.get(getContext())) {
+            if (prefetched >= RecentLocations.MAX_PREFETCH) {
+                break;
+            }
+            if (entry.locationSetting.equals(preferredLocation)) {
+                continue;
+            }
+            if (SyncRegistry.getInstance().isSuperseded(preferredLocation)) {
+                // The user is waiting on a sync for a new location, get out of its way
+                break;
+            }
+            if (backoff.getBlockedMillis(host) > 0) {
+                break;
+            }
+            prefetched++;
+            SyncTrace trace = new SyncTrace(entry.locationSetting, false, false);
+            try {
+                String forecastJsonStr = downloadForecast(entry.locationSetting,
+                        entry.hasLatLon, entry.latitude, entry.longitude, trace);
+                if (forecastJsonStr != null) {
+                    onForecastParsed(backoff, host, getWeatherDataFromJson(forecastJsonStr,
+                            entry.locationSetting, false, trace, syncResult), null);
+                } else {
+                    onServerUnavailable(backoff, host, 0, null);
+                    trace.setOutcome(LOCATION_STATUS_SERVER_DOWN);
+                }
+            } catch (IOException e) {
+                onRequestFailed(backoff, host, e, null);
+                trace.setOutcome(LOCATION_STATUS_SERVER_DOWN);
+                Log.e(LOG_TAG, "Error prefetching " + entry.locationSetting, e);
+            } catch (JSONException e) {
+                backoff.onSuccess(host);
+                trace.setOutcome(LOCATION_STATUS_SERVER_INVALID);
+                Log.e(LOG_TAG, "Error prefetching " + entry.locationSetting, e);
+            } finally {
+                trace.save(getContext());
+            }
+        }
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Take the String representing the complete forecast in JSON Format, parse it with
+     * {@link OwmParser} and store the days it contains.
+     * <p/>
+     * Only the preferred location updates the location status and the widgets, Muzei,
+     * notification and wearable; other locations are just stored for later.
+     *
+     * @param trace      Records the parse, write and fan-out times and the outcome
+     * @param syncResult Counts the days received and the rows stored
+     * @return the outcome, LOCATION_STATUS_OK if the forecast was stored
+     */
+    private @LocationStatus int getWeatherDataFromJson(String forecastJsonStr,
+                                                       String locationSetting,
+                                                       boolean preferred,
+                                                       SyncTrace trace,
+                                                       SyncResult syncResult)
+            throws JSONException {
 
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
+            trace.beginPhase(SyncTrace.PHASE_PARSE);
+            OwmForecast forecast = OwmParser.parse(forecastJsonStr);
             Context context = getContext();
 
             // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
+            switch (forecast.code) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    trace.setOutcome(LOCATION_STATUS_INVALID);
+                    if (preferred) {
                         setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
+                    }
+                    return LOCATION_STATUS_INVALID;
+                default:
+                    trace.setOutcome(LOCATION_STATUS_SERVER_DOWN);
+                    if (preferred) {
                         setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+                    }
+                    return LOCATION_STATUS_SERVER_DOWN;
             }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            trace.beginPhase(SyncTrace.PHASE_WRITE);
+            long locationId = addLocation(locationSetting, forecast.cityName, forecast.latitude,
+                    forecast.longitude);
+            trace.beginPhase(SyncTrace.PHASE_PARSE);
 
             // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            Vector<ContentValues> cVVector = new Vector<ContentValues>(forecast.days.size());
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -299,107 +598,113 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // now we work exclusively in UTC
             dayTime = new Time();
 
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+            // Used by the SyncPolicy to tell whether the forecast changed since the last sync.
+            // Only the weather of each day counts, by its offset from today, so a new day
+            // starting doesn't count as a change.
+            int fingerprint = 1;
+            int[] weatherIds = new int[forecast.days.size()];
 
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+            for (int i = 0; i < forecast.days.size(); i++) {
+                OwmForecast.Day day = forecast.days.get(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+                long dateTime = dayTime.setJulianDay(julianStartDay + i);
 
                 ContentValues weatherValues = new ContentValues();
 
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
 
                 cVVector.add(weatherValues);
+
+                weatherIds[i] = day.weatherId;
+                fingerprint = 31 * fingerprint + i;
+                fingerprint = 31 * fingerprint + day.weatherId;
+                fingerprint = 31 * fingerprint + (int) Math.round(day.high);
+                fingerprint = 31 * fingerprint + (int) Math.round(day.low);
             }
 
             int inserted = 0;
             // add to database
+            trace.beginPhase(SyncTrace.PHASE_WRITE);
             if (cVVector.size() > 0) {
                 ContentValues[] cvArray = new ContentValues[cVVector.size()];
                 cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+                inserted = getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+                trace.setRows(inserted);
+                syncResult.stats.numEntries += cVVector.size();
+                syncResult.stats.numInserts += inserted;
+
+                // move old data into the history, which is compacted so it can't grow endlessly
+                getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_ARCHIVE_WEATHER,
+                        Long.toString(dayTime.setJulianDay(julianStartDay - 1)), null);
+            }
+            trace.endPhase();
+            if (preferred && cVVector.size() > 0) {
+                // Before anyone is told, so whatever reads the snapshot gets the new forecast
+                trace.beginPhase(SyncTrace.PHASE_WRITE);
+                long startDate = dayTime.setJulianDay(julianStartDay);
+                ForecastBlob snapshot = ForecastSnapshot.publish(context, locationSetting,
+                        startDate);
+                if (snapshot == null) {
+                    snapshot = ForecastSnapshot.read(context, locationSetting, startDate);
+                }
+                trace.endPhase();
+                // Only queues the consumers, onPerformSync waits for them before it returns
+                if (snapshot != null) {
+                    trace.setFanout(PostSyncDispatcher.getInstance().dispatch(context,
+                            locationSetting, snapshot, PostSyncDispatcher.REASON_SYNC));
+                }
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                notifyWearable();
+                // Let the policy adapt the periodic sync to how volatile the forecast is
+                SyncPolicy policy = SyncPolicy.getInstance(context);
+                int previousInterval = policy.getCurrentInterval();
+                int interval = policy.onSyncSucceeded(fingerprint, weatherIds);
+                if (interval != previousInterval) {
+                    configurePeriodicSync(context, interval, interval / 3);
+                }
+            }
+            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted for " + locationSetting);
+            trace.setOutcome(LOCATION_STATUS_OK);
+            if (preferred) {
+                setLocationStatus(getContext(), LOCATION_STATUS_OK);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            return LOCATION_STATUS_OK;
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            trace.setOutcome(LOCATION_STATUS_SERVER_INVALID);
+            if (preferred) {
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            }
+            return LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            trace.endPhase();
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
-    }
-
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
-        }
+    static void updateMuzei(Context context) {
+        context.startService(new Intent(ACTION_DATA_UPDATED)
+                .setClass(context, WeatherMuzeiSource.class));
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
+    /**
+     * Posts today's weather notification if notifications are enabled and none was shown within
+     * the last day.  With {@code refreshOnly}, e.g. when only the units have changed, a
+     * notification shown within the last day is re-posted instead, without counting as a new
+     * daily notification.  Must not be called from the UI thread.
+     */
+    static void notifyWeather(Context context, ForecastBlob forecast, boolean refreshOnly) {
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
@@ -410,112 +715,140 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
+            boolean shownToday = System.currentTimeMillis() - lastSync < DAY_IN_MILLIS;
 
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
+            if (refreshOnly) {
+                if (shownToday) {
+                    showWeatherNotification(context, forecast);
+                }
+            } else if (!shownToday) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    //  mPutDataRequest = createPutDataRequest(high, low, weatherId);
-                    //  notifyWearable();
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    // notify wearable
-                    //notifyWearable(weatherId, high, low);
-
+                if (showWeatherNotification(context, forecast)) {
                     //refreshing last sync
                     SharedPreferences.Editor editor = prefs.edit();
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
-    private void notifyWearable() {
-        Context context = getContext();
-        Intent intent = new Intent(context, WearSyncService.class);
-        intent.setAction(WearSyncService.ACTION_SEND_WEAR_DATA);
-        context.startService(intent);
+    /**
+     * Builds and posts the weather notification for today from the given forecast.
+     *
+     * @return true if a notification was posted
+     */
+    private static boolean showWeatherNotification(Context context, ForecastBlob forecast) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        int day = forecast.findDay(today);
+
+        boolean posted = false;
+        if (day < forecast.getDayCount() && forecast.getDate(day) == today) {
+            int weatherId = forecast.getWeatherId(day);
+            double high = forecast.getHigh(day);
+            double low = forecast.getLow(day);
+            String desc = Utility.getStringForWeatherCondition(context, weatherId);
+
+            int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+            Resources resources = context.getResources();
+
+            int largeIconSize = WeatherArtCache.getNotificationIconSize(context);
+
+            // Retrieve the large icon from what is stored locally, downloaded art from an
+            // earlier notification or else our own art.  The sync never waits for the network.
+            WeatherArtCache artCache = WeatherArtCache.getInstance(context);
+            Bitmap largeIcon = artCache.getLocal(weatherId, largeIconSize);
+            boolean fetchArt = largeIcon == null;
+            if (largeIcon == null) {
+                largeIcon = artCache.getResource(weatherId, largeIconSize);
+            }
+            String title = context.getString(R.string.app_name);
+
+            // Define the text of the forecast.
+            String contentText = String.format(context.getString(R.string.format_notification),
+                    desc,
+                    Utility.formatTemperature(context, high),
+                    Utility.formatTemperature(context, low));
+
+            // NotificationCompatBuilder is a very convenient way to build backward-compatible
+            // notifications.  Just throw in some data.
+            NotificationCompat.Builder mBuilder =
+                    new NotificationCompat.Builder(context)
+                            .setColor(resources.getColor(R.color.primary_light))
+                            .setSmallIcon(iconId)
+                            .setLargeIcon(largeIcon)
+                            .setContentTitle(title)
+                            .setContentText(contentText)
+                            // Swapping in the downloaded art mustn't alert the user again
+                            .setOnlyAlertOnce(true);
+
+            // Make something interesting happen when the user clicks on the notification.
+            // In this case, opening the app is sufficient.
+            Intent resultIntent = new Intent(context, MainActivity.class);
+
+            // The stack builder object will contain an artificial back stack for the
+            // started Activity.
+            // This ensures that navigating backward from the Activity leads out of
+            // your application to the Home screen.
+            TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+            stackBuilder.addNextIntent(resultIntent);
+            PendingIntent resultPendingIntent =
+                    stackBuilder.getPendingIntent(
+                            0,
+                            PendingIntent.FLAG_UPDATE_CURRENT
+                    );
+            mBuilder.setContentIntent(resultPendingIntent);
+
+            NotificationManager mNotificationManager =
+                    (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+            mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+            posted = true;
+
+            if (fetchArt) {
+                // Updates the notification in place once the art is in, unless another one has
+                // been posted in the meantime or the user has dismissed it.  Before Marshmallow
+                // there's no telling whether it was dismissed, so the art is only fetched for
+                // the next notification.
+                final int generation = sNotificationGeneration.incrementAndGet();
+                final NotificationCompat.Builder builder = mBuilder;
+                final NotificationManager notificationManager = mNotificationManager;
+                artCache.fetch(weatherId, largeIconSize, new WeatherArtCache.Callback() {
+                    @Override
+                    public void onArtLoaded(int weatherId, Bitmap art) {
+                        if (art != null && sNotificationGeneration.get() == generation
+                                && isWeatherNotificationActive(notificationManager)) {
+                            builder.setLargeIcon(art);
+                            notificationManager.notify(WEATHER_NOTIFICATION_ID, builder.build());
+                        }
+                    }
+                });
+            } else {
+                sNotificationGeneration.incrementAndGet();
+            }
+        }
+        return posted;
+    }
+
+    /**
+     * @return true if the weather notification is still showing, false if it has been dismissed
+     * or this can't be told
+     */
+    private static boolean isWeatherNotificationActive(NotificationManager notificationManager) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        return isWeatherNotificationActiveM(notificationManager);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean isWeatherNotificationActiveM(NotificationManager notificationManager) {
+        for (StatusBarNotification notification : notificationManager.getActiveNotifications()) {
+            if (notification.getId() == WEATHER_NOTIFICATION_ID) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -593,11 +926,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        Account account = getSyncAccount(context);
+        String authority = context.getString(R.string.content_authority);
+
+        // Merge with a sync for the same location that is already pending or running, which
+        // collapses bursts of requests, e.g. from several preference changes in a row, and
+        // cancel one for a location the user has since moved away from.  Once a sync has
+        // finished, failed or not, the next request starts a new one.
+        switch (SyncRegistry.getInstance().onSyncRequested(locationSetting)) {
+            case SyncRegistry.ACTION_MERGE:
+                return;
+            case SyncRegistry.ACTION_CANCEL_AND_REQUEST:
+                ContentResolver.cancelSync(account, authority);
+                break;
+            default:
+                break;
+        }
+
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        ContentResolver.requestSync(account, authority, bundle);
     }
 
     /**
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Backs off from the weather server while it is failing, so that an outage doesn't have every
+ * device retrying as fast as the sync framework and manual refreshes let it.
+ * <p/>
+ * After a failure worth retrying, the next attempt on that host waits {@link #BASE_DELAY_MILLIS}
+ * doubled for each failure in a row, up to {@link #MAX_DELAY_MILLIS}, or longer if the server
+ * asked for that with Retry-After.  Half of the delay is random, so devices that failed together
+ * don't come back together.  After {@link #FAILURE_THRESHOLD} failures in a row the host's
+ * circuit opens: until the delay has passed no request goes to it at all, manual syncs, the
+ * hourly forecast and prefetches included.  The first request after that is a trial, which
+ * closes the circuit if it gets an answer or opens it again for longer if it doesn't.
+ * <p/>
+ * The state is persisted, so a restarted process doesn't start over, and time and randomness
+ * are supplied through {@link SyncPolicy.Clock} and {@link Random} so tests can fake them.
+ */
+public class SyncBackoff {
+    private static final String LOG_TAG = SyncBackoff.class.getSimpleName();
+
+    // Keys used to persist the state, followed by the host
+    static final String PREF_PREFIX = "sync_backoff_";
+    static final String PREF_FAILURES = PREF_PREFIX + "failures_";
+    static final String PREF_NEXT_ATTEMPT = PREF_PREFIX + "next_attempt_";
+
+    static final long BASE_DELAY_MILLIS = 1000 * 30;
+    static final long MAX_DELAY_MILLIS = 1000 * 60 * 60;
+    // A Retry-After beyond this is treated as this, in case a server sends something silly
+    static final long MAX_RETRY_AFTER_MILLIS = 1000 * 60 * 60 * 6;
+    // Failures in a row after which no request goes to the host until its delay has passed
+    static final int FAILURE_THRESHOLD = 3;
+
+    // RFC 1123, the only date format Retry-After is allowed to use
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private static SyncBackoff sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final SyncPolicy.Clock mClock;
+    private final Random mRandom;
+
+    public SyncBackoff(SharedPreferences prefs, SyncPolicy.Clock clock, Random random) {
+        mPrefs = prefs;
+        mClock = clock;
+        mRandom = random;
+    }
+
+    public static synchronized SyncBackoff getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncBackoff(
+                    PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()),
+                    new SyncPolicy.Clock() {
+                        @Override
+                        public long currentTimeMillis() {
+                            return System.currentTimeMillis();
+                        }
+                    },
+                    new Random());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return how long requests to the host have to wait because its circuit is open, in
+     * milliseconds, or 0 if they can go ahead
+     */
+    public synchronized long getBlockedMillis(String host) {
+        if (mPrefs.getInt(PREF_FAILURES + host, 0) < FAILURE_THRESHOLD) {
+            return 0;
+        }
+        return Math.max(0, mPrefs.getLong(PREF_NEXT_ATTEMPT + host, 0)
+                - mClock.currentTimeMillis());
+    }
+
+    /**
+     * Records a failure worth retrying, such as a network error or a server error status.
+     *
+     * @param retryAfterMillis How long the server asked us to wait, or 0
+     * @return how long to wait before the next attempt, in milliseconds
+     */
+    public synchronized long onFailure(String host, long retryAfterMillis) {
+        int failures = mPrefs.getInt(PREF_FAILURES + host, 0) + 1;
+        long delay = Math.max(getDelayMillis(failures),
+                Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS));
+        mPrefs.edit()
+                .putInt(PREF_FAILURES + host, failures)
+                .putLong(PREF_NEXT_ATTEMPT + host, mClock.currentTimeMillis() + delay)
+                .apply();
+        Log.d(LOG_TAG, host + " failed " + failures + " time(s) in a row, next attempt in " +
+                delay / 1000 + " s" + (failures >= FAILURE_THRESHOLD ? ", circuit open" : ""));
+        return delay;
+    }
+
+    /**
+     * Records that the host answered, which closes its circuit.
+     */
+    public synchronized void onSuccess(String host) {
+        if (mPrefs.getInt(PREF_FAILURES + host, 0) == 0) {
+            return;
+        }
+        mPrefs.edit()
+                .remove(PREF_FAILURES + host)
+                .remove(PREF_NEXT_ATTEMPT + host)
+                .apply();
+        Log.d(LOG_TAG, host + " answered again, circuit closed");
+    }
+
+    /**
+     * Forgets every host's failures.
+     */
+    public synchronized void reset() {
+        ArrayList<String> keys = new ArrayList<String>();
+        for (String key : mPrefs.getAll().keySet()) {
+            if (key.startsWith(PREF_PREFIX)) {
+                keys.add(key);
+            }
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String key : keys) {
+            editor.remove(key);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return the delay after the given number of failures in a row: the exponential delay, of
+     * which the upper half is drawn at random
+     */
+    long getDelayMillis(int failures) {
+        long delay = BASE_DELAY_MILLIS << Math.min(failures - 1, 20);
+        delay = Math.min(delay, MAX_DELAY_MILLIS);
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date.
+     *
+     * @param now The current time, to turn a date into a delay
+     * @return the delay in milliseconds, or 0 if there is none or it can't be parsed
+     */
+    static long parseRetryAfterMillis(String value, long now) {
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        if (value.length() == 0) {
+            return 0;
+        }
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                // Clamped before it is turned into milliseconds, which could overflow
+                return Math.min(Long.parseLong(value), MAX_RETRY_AFTER_MILLIS / 1000) * 1000;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - now);
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
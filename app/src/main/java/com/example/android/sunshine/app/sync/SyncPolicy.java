@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how often Sunshine should sync with the weather server.
+ * <p/>
+ * The interval is stretched while consecutive syncs keep returning the same forecast, shortened
+ * while severe weather is expected, and periodic syncs are deferred while the device is on a
+ * metered network or low on battery.  Every decision is kept in a small rolling log in the
+ * preferences, so it survives the process, and is printed by
+ * {@code adb shell dumpsys activity service SunshineSyncService}.
+ * Duplicate manual requests are left to {@link SyncRegistry}.
+ * <p/>
+ * Time and device state are supplied through {@link Clock} and {@link DeviceState} so the policy
+ * can be exercised with fakes in tests.
+ */
+public class SyncPolicy {
+    private static final String LOG_TAG = SyncPolicy.class.getSimpleName();
+
+    // Keys used to persist the policy state between process restarts
+    static final String PREF_UNCHANGED_STREAK = "sync_policy_unchanged_streak";
+    static final String PREF_LAST_FINGERPRINT = "sync_policy_last_fingerprint";
+    static final String PREF_LAST_SUCCESS = "sync_policy_last_success";
+    static final String PREF_LAST_USER_ACTIVE = "sync_policy_last_user_active";
+    static final String PREF_CURRENT_INTERVAL = "sync_policy_current_interval";
+    // The decisions, one per line, with their fields separated by tabs
+    static final String PREF_DECISIONS = "sync_policy_decisions";
+
+    // Interval used while severe weather is expected, in seconds.  1 hour.
+    static final int SEVERE_WEATHER_INTERVAL = 60 * 60;
+    // The interval is doubled for each unchanged sync up to this many times
+    static final int MAX_STRETCH_STEPS_ACTIVE = 1;
+    static final int MAX_STRETCH_STEPS_IDLE = 2;
+    // The user counts as active if the app was opened within this period
+    static final long USER_ACTIVE_WINDOW_MILLIS = 1000 * 60 * 60 * 24;
+    // Periodic syncs are never deferred if the data is older than this
+    static final long MAX_STALENESS_MILLIS = 1000 * 60 * 60 * 12;
+    // How long a deferred sync is pushed back, in seconds.  30 minutes.
+    static final int DEFER_SECONDS = 60 * 30;
+    // Only the first days of the forecast are considered when looking for severe weather
+    static final int SEVERE_WEATHER_LOOKAHEAD_DAYS = 2;
+    // Number of decisions kept in the rolling log
+    static final int MAX_DECISIONS = 50;
+
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public interface DeviceState {
+        boolean isMetered();
+
+        boolean isBatteryLow();
+    }
+
+    /**
+     * A single decision taken by the policy, kept for later analysis.
+     */
+    public static final class Decision {
+        public final long timeMillis;
+        public final String action;
+        public final String reason;
+        public final int intervalSeconds;
+
+        Decision(long timeMillis, String action, String reason, int intervalSeconds) {
+            this.timeMillis = timeMillis;
+            this.action = action;
+            this.reason = reason;
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return timeMillis + " " + action + " (" + reason + ") interval=" + intervalSeconds;
+        }
+    }
+
+    private static SyncPolicy sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Clock mClock;
+    private final DeviceState mDeviceState;
+
+    public SyncPolicy(SharedPreferences prefs, Clock clock, DeviceState deviceState) {
+        mPrefs = prefs;
+        mClock = clock;
+        mDeviceState = deviceState;
+    }
+
+    public static synchronized SyncPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new SyncPolicy(PreferenceManager.getDefaultSharedPreferences(appContext),
+                    new Clock() {
+                        @Override
+                        public long currentTimeMillis() {
+                            return System.currentTimeMillis();
+                        }
+                    },
+                    new SystemDeviceState(appContext));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records that the user has the app in the foreground.  While the user is active we don't
+     * stretch the sync interval as far, so the data they look at stays fresh.
+     */
+    public synchronized void onUserActive() {
+        mPrefs.edit().putLong(PREF_LAST_USER_ACTIVE, mClock.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Returns the number of seconds a periodic sync should be pushed back, or 0 if it should run
+     * now.  Manual syncs are never deferred.
+     */
+    public synchronized int getDeferralSeconds(boolean manual) {
+        if (manual) {
+            return 0;
+        }
+        long now = mClock.currentTimeMillis();
+        long lastSuccess = mPrefs.getLong(PREF_LAST_SUCCESS, 0);
+        if (now - lastSuccess >= MAX_STALENESS_MILLIS) {
+            return 0;
+        }
+        String reason = null;
+        if (mDeviceState.isMetered()) {
+            reason = "metered network";
+        } else if (mDeviceState.isBatteryLow()) {
+            reason = "low battery";
+        }
+        if (reason == null) {
+            return 0;
+        }
+        record("defer", reason, getCurrentInterval());
+        return DEFER_SECONDS;
+    }
+
+    /**
+     * Feeds the result of a successful sync into the policy and returns the periodic interval,
+     * in seconds, that should be used from now on.
+     *
+     * @param fingerprint A hash of the downloaded forecast, used to detect unchanged data
+     * @param weatherIds  The condition codes of the forecast, in date order
+     */
+    public synchronized int onSyncSucceeded(int fingerprint, int[] weatherIds) {
+        long now = mClock.currentTimeMillis();
+        boolean unchanged = mPrefs.contains(PREF_LAST_FINGERPRINT)
+                && mPrefs.getInt(PREF_LAST_FINGERPRINT, 0) == fingerprint;
+        int streak = unchanged ? mPrefs.getInt(PREF_UNCHANGED_STREAK, 0) + 1 : 0;
+
+        int interval;
+        String reason;
+        if (isSevereWeatherExpected(weatherIds)) {
+            interval = SEVERE_WEATHER_INTERVAL;
+            reason = "severe weather expected";
+        } else {
+            boolean userActive =
+                    now - mPrefs.getLong(PREF_LAST_USER_ACTIVE, 0) < USER_ACTIVE_WINDOW_MILLIS;
+            int steps = Math.min(streak,
+                    userActive ? MAX_STRETCH_STEPS_ACTIVE : MAX_STRETCH_STEPS_IDLE);
+            interval = SunshineSyncAdapter.SYNC_INTERVAL << steps;
+            reason = unchanged ? "unchanged " + streak + " time(s)" : "forecast changed";
+        }
+
+        mPrefs.edit()
+                .putInt(PREF_LAST_FINGERPRINT, fingerprint)
+                .putInt(PREF_UNCHANGED_STREAK, streak)
+                .putLong(PREF_LAST_SUCCESS, now)
+                .putInt(PREF_CURRENT_INTERVAL, interval)
+                .apply();
+        record("schedule", reason, interval);
+        return interval;
+    }
+
+    public synchronized int getCurrentInterval() {
+        return mPrefs.getInt(PREF_CURRENT_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    public synchronized List<Decision> getDecisions() {
+        String[] lines = TextUtils.split(mPrefs.getString(PREF_DECISIONS, ""), "\n");
+        List<Decision> decisions = new ArrayList<Decision>(lines.length);
+        for (String line : lines) {
+            String[] fields = TextUtils.split(line, "\t");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                decisions.add(new Decision(Long.parseLong(fields[0]), fields[1], fields[2],
+                        Integer.parseInt(fields[3])));
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Dropping an unreadable decision: " + line);
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * Prints the current interval and the logged decisions, oldest first.
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Sync interval: " + getCurrentInterval() + " s");
+        writer.println("Decisions (time action (reason) interval)");
+        for (Decision decision : getDecisions()) {
+            writer.print("  ");
+            writer.println(decision);
+        }
+    }
+
+    /**
+     * Thunderstorms (2xx) and the extreme / high wind groups (90x, 95x and 96x) are treated as
+     * severe weather.
+     */
+    static boolean isSevereWeather(int weatherId) {
+        return (weatherId >= 200 && weatherId <= 232)
+                || (weatherId >= 900 && weatherId <= 906)
+                || (weatherId >= 957 && weatherId <= 962);
+    }
+
+    private static boolean isSevereWeatherExpected(int[] weatherIds) {
+        if (weatherIds == null) {
+            return false;
+        }
+        int days = Math.min(weatherIds.length, SEVERE_WEATHER_LOOKAHEAD_DAYS);
+        for (int i = 0; i < days; i++) {
+            if (isSevereWeather(weatherIds[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void record(String action, String reason, int intervalSeconds) {
+        Decision decision = new Decision(mClock.currentTimeMillis(), action, reason, intervalSeconds);
+        String[] lines = TextUtils.split(mPrefs.getString(PREF_DECISIONS, ""), "\n");
+        int first = Math.max(0, lines.length - MAX_DECISIONS + 1);
+        StringBuilder kept = new StringBuilder();
+        for (int i = first; i < lines.length; i++) {
+            kept.append(lines[i]).append('\n');
+        }
+        kept.append(decision.timeMillis).append('\t').append(decision.action).append('\t')
+                .append(decision.reason).append('\t').append(decision.intervalSeconds);
+        mPrefs.edit().putString(PREF_DECISIONS, kept.toString()).apply();
+        Log.d(LOG_TAG, decision.toString());
+    }
+
+    /**
+     * {@link DeviceState} backed by the ConnectivityManager and the sticky battery broadcast.
+     */
+    static class SystemDeviceState implements DeviceState {
+        // Below this battery percentage, and not charging, the battery counts as low
+        private static final int LOW_BATTERY_PERCENT = 15;
+
+        private final Context mContext;
+
+        SystemDeviceState(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public boolean isMetered() {
+            ConnectivityManager cm =
+                    (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm.isActiveNetworkMetered();
+        }
+
+        @Override
+        public boolean isBatteryLow() {
+            Intent battery = mContext.registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (battery == null) {
+                return false;
+            }
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            if (status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL) {
+                return false;
+            }
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            return level >= 0 && scale > 0 && level * 100 / scale < LOW_BATTERY_PERCENT;
+        }
+    }
+}
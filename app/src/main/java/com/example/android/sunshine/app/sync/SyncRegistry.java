@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Keeps track of the sync that is pending or running, so that concurrent manual requests for
+ * the same location are merged into it and requests for a new location supersede it.
+ * <p/>
+ * Only the latest requested location is allowed to publish its result, so however many requests
+ * were merged, the location status is reported once.  Once a sync has finished, whether it
+ * succeeded or not, the next request starts a new one, so a retry right after a failure isn't
+ * swallowed.
+ * <p/>
+ * Time is supplied through {@link SyncPolicy.Clock} so tests can fake it.
+ */
+public class SyncRegistry {
+    private static final String LOG_TAG = SyncRegistry.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({ACTION_REQUEST, ACTION_MERGE, ACTION_CANCEL_AND_REQUEST})
+    public @interface Action {
+    }
+
+    // No sync is pending or running: request a new one
+    public static final int ACTION_REQUEST = 0;
+    // A sync for the same location is already pending or running: nothing to do
+    public static final int ACTION_MERGE = 1;
+    // A sync for another location is running: cancel it and request a new one
+    public static final int ACTION_CANCEL_AND_REQUEST = 2;
+
+    // A pending request that hasn't started within this time is assumed to have been dropped
+    // by the framework (e.g. because sync is disabled), and no longer absorbs new requests
+    static final long PENDING_TIMEOUT_MILLIS = 1000 * 60;
+
+    private static final SyncRegistry sInstance = new SyncRegistry(new SyncPolicy.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    });
+
+    private final SyncPolicy.Clock mClock;
+
+    private String mLatestLocation;
+    private String mPendingLocation;
+    private long mPendingSince;
+    private String mRunningLocation;
+    private int mMergedRequests;
+
+    SyncRegistry(SyncPolicy.Clock clock) {
+        mClock = clock;
+    }
+
+    public static SyncRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Registers a manual sync request for the given location.
+     *
+     * @return what the caller needs to do to have the request served
+     */
+    public synchronized @Action int onSyncRequested(String locationSetting) {
+        mLatestLocation = locationSetting;
+        if (mPendingLocation != null
+                && mClock.currentTimeMillis() - mPendingSince > PENDING_TIMEOUT_MILLIS) {
+            mPendingLocation = null;
+        }
+        if (locationSetting.equals(mPendingLocation)
+                || (mPendingLocation == null && locationSetting.equals(mRunningLocation))) {
+            mMergedRequests++;
+            Log.d(LOG_TAG, "Merged sync request for " + locationSetting);
+            return ACTION_MERGE;
+        }
+        if (mPendingLocation != null) {
+            // The pending sync reads the location when it starts, so it will pick this one up
+            Log.d(LOG_TAG, "Pending sync for " + mPendingLocation + " now serves " + locationSetting);
+            mPendingLocation = locationSetting;
+            mMergedRequests++;
+            return ACTION_MERGE;
+        }
+        mPendingLocation = locationSetting;
+        mPendingSince = mClock.currentTimeMillis();
+        mMergedRequests = 1;
+        if (mRunningLocation != null) {
+            Log.d(LOG_TAG, "Sync for " + mRunningLocation + " superseded by " + locationSetting);
+            return ACTION_CANCEL_AND_REQUEST;
+        }
+        return ACTION_REQUEST;
+    }
+
+    public synchronized void onSyncStarted(String locationSetting) {
+        mRunningLocation = locationSetting;
+        mLatestLocation = locationSetting;
+        if (locationSetting.equals(mPendingLocation)) {
+            mPendingLocation = null;
+        }
+    }
+
+    public synchronized void onSyncFinished(String locationSetting) {
+        if (locationSetting.equals(mRunningLocation)) {
+            mRunningLocation = null;
+            if (mPendingLocation == null) {
+                Log.d(LOG_TAG, "Sync for " + locationSetting + " finished, served "
+                        + mMergedRequests + " request(s)");
+                mMergedRequests = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns true if a newer request has been made for a different location, in which case
+     * the sync for this location should not write its results.
+     */
+    public synchronized boolean isSuperseded(String locationSetting) {
+        return mLatestLocation != null && !mLatestLocation.equals(locationSetting);
+    }
+}
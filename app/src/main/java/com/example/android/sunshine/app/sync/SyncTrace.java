@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTelemetryEntry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Records how long the sync of one location spends in each phase, how much it downloaded and
+ * wrote, and how it ended.  The sync switches phases as it goes, time spent in a phase more than
+ * once is added up, and {@link #save(Context)} stores the result in the sync telemetry table.
+ * <p/>
+ * The fan-out is the exception: its consumers run on {@link PostSyncDispatcher}'s threads after
+ * the sync has handed them the forecast, so it is the time from queueing them until the last one
+ * finished, taken from the {@link PostSyncDispatcher.Dispatch} when the trace is saved.  The sync
+ * calls {@link #finish()} once the location is synced, so the total doesn't include what it
+ * does after that, and saves the trace once the consumers are done.
+ * <p/>
+ * A trace belongs to a single sync thread and is not thread safe.
+ */
+public class SyncTrace {
+    private static final String LOG_TAG = SyncTrace.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PHASE_CONNECT, PHASE_DOWNLOAD, PHASE_PARSE, PHASE_WRITE})
+    public @interface Phase {
+    }
+
+    public static final int PHASE_CONNECT = 0;
+    public static final int PHASE_DOWNLOAD = 1;
+    public static final int PHASE_PARSE = 2;
+    public static final int PHASE_WRITE = 3;
+    // Not begun like the others, see setFanout
+    static final int PHASE_FANOUT = 4;
+    private static final int PHASE_COUNT = 5;
+    private static final int NO_PHASE = -1;
+
+    private static final String[] PHASE_COLUMNS = {
+            SyncTelemetryEntry.COLUMN_CONNECT_MILLIS,
+            SyncTelemetryEntry.COLUMN_DOWNLOAD_MILLIS,
+            SyncTelemetryEntry.COLUMN_PARSE_MILLIS,
+            SyncTelemetryEntry.COLUMN_WRITE_MILLIS,
+            SyncTelemetryEntry.COLUMN_FANOUT_MILLIS
+    };
+
+    private final String mLocationSetting;
+    private final boolean mPreferred;
+    private final boolean mManual;
+    private final long mStartTime = System.currentTimeMillis();
+    private final long mStartElapsed = SystemClock.elapsedRealtime();
+    private final long[] mPhaseMillis = new long[PHASE_COUNT];
+
+    private int mCurrentPhase = NO_PHASE;
+    private long mPhaseStart;
+    private long mBytes;
+    private int mRows;
+    private int mOutcome = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    private PostSyncDispatcher.Dispatch mFanout;
+    private long mTotalMillis = -1;
+
+    public SyncTrace(String locationSetting, boolean preferred, boolean manual) {
+        mLocationSetting = locationSetting;
+        mPreferred = preferred;
+        mManual = manual;
+    }
+
+    /**
+     * Ends the current phase, if any, and starts timing the given one.
+     */
+    public void beginPhase(@Phase int phase) {
+        endPhase();
+        mCurrentPhase = phase;
+        mPhaseStart = SystemClock.elapsedRealtime();
+    }
+
+    public void endPhase() {
+        if (mCurrentPhase != NO_PHASE) {
+            mPhaseMillis[mCurrentPhase] += SystemClock.elapsedRealtime() - mPhaseStart;
+            mCurrentPhase = NO_PHASE;
+        }
+    }
+
+    public void addBytes(long bytes) {
+        mBytes += bytes;
+    }
+
+    public void setRows(int rows) {
+        mRows = rows;
+    }
+
+    public void setOutcome(@SunshineSyncAdapter.LocationStatus int outcome) {
+        mOutcome = outcome;
+    }
+
+    /**
+     * Sets the consumers the forecast was handed to, whose time is the fan-out.
+     */
+    public void setFanout(PostSyncDispatcher.Dispatch fanout) {
+        mFanout = fanout;
+    }
+
+    public long getPhaseMillis(int phase) {
+        if (phase == PHASE_FANOUT) {
+            return mFanout != null ? mFanout.getElapsedMillis() : 0;
+        }
+        return mPhaseMillis[phase];
+    }
+
+    /**
+     * Ends the current phase, if any, and the total time of the sync.
+     */
+    public void finish() {
+        endPhase();
+        if (mTotalMillis == -1) {
+            mTotalMillis = SystemClock.elapsedRealtime() - mStartElapsed;
+        }
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncTelemetryEntry.COLUMN_START_TIME, mStartTime);
+        values.put(SyncTelemetryEntry.COLUMN_LOCATION_SETTING, mLocationSetting);
+        values.put(SyncTelemetryEntry.COLUMN_PREFERRED, mPreferred ? 1 : 0);
+        values.put(SyncTelemetryEntry.COLUMN_MANUAL, mManual ? 1 : 0);
+        values.put(SyncTelemetryEntry.COLUMN_OUTCOME, mOutcome);
+        finish();
+        values.put(SyncTelemetryEntry.COLUMN_TOTAL_MILLIS, mTotalMillis);
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            values.put(PHASE_COLUMNS[i], getPhaseMillis(i));
+        }
+        values.put(SyncTelemetryEntry.COLUMN_BYTES, mBytes);
+        values.put(SyncTelemetryEntry.COLUMN_ROWS, mRows);
+        return values;
+    }
+
+    /**
+     * Ends the trace and stores it.  Failing to store it is logged but never fails the sync.
+     */
+    public void save(Context context) {
+        ContentValues values = toContentValues();
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, mLocationSetting + ": " + values);
+        }
+        try {
+            context.getContentResolver().insert(SyncTelemetryEntry.CONTENT_URI, values);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Error storing sync telemetry", e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.core.ForecastBlob;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends today's weather to the wearable.  Runs on a {@link PostSyncDispatcher} thread, so it
+ * connects and sends with the blocking calls instead of callbacks and a thread of its own.
+ */
+final class WearableForecastSender {
+    private static final String LOG_TAG = WearableForecastSender.class.getSimpleName();
+
+    private static final String PATH = "/weather";
+    private static final String DATA_WEATHER_ID = "weatherId";
+    private static final String DATA_HIGH_TEMP = "highTemp";
+    private static final String DATA_LOW_TEMP = "lowTemp";
+    private static final String DATA_TIMESTAMP = "timestamp";
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long SEND_TIMEOUT_SECONDS = 10;
+
+    private WearableForecastSender() {
+    }
+
+    static void send(PostSyncDispatcher.Task task) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ForecastBlob forecast = task.forecast;
+        int day = forecast.findDay(today);
+        if (day == forecast.getDayCount() || forecast.getDate(day) != today) {
+            return;
+        }
+        int weatherId = forecast.getWeatherId(day);
+        String highTemp = Utility.formatTemperature(task.context, forecast.getHigh(day));
+        String lowTemp = Utility.formatTemperature(task.context, forecast.getLow(day));
+        PutDataMapRequest requestMap = PutDataMapRequest.create(PATH);
+        requestMap.getDataMap().putInt(DATA_WEATHER_ID, weatherId);
+        requestMap.getDataMap().putString(DATA_HIGH_TEMP, highTemp);
+        requestMap.getDataMap().putString(DATA_LOW_TEMP, lowTemp);
+        requestMap.getDataMap().putLong(DATA_TIMESTAMP, System.currentTimeMillis());
+
+        GoogleApiClient client = new GoogleApiClient.Builder(task.context)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult connection = client.blockingConnect(CONNECT_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.d(LOG_TAG, "Could not connect to the wearable: " + connection);
+            return;
+        }
+        try {
+            // The connection may have taken a while, during which a newer forecast came in
+            if (task.isCancelled()) {
+                return;
+            }
+            DataApi.DataItemResult result = Wearable.DataApi.putDataItem(client,
+                    requestMap.asPutDataRequest()).await(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Log.d(LOG_TAG, "weatherId: " + weatherId + " highTemp: " + highTemp +
+                    " lowTemp: " + lowTemp + ", " + result.getStatus());
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -20,9 +20,6 @@ import android.appwidget.AppWidgetProvider;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
-
-import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
  * Provider for a horizontally expandable widget showing today's weather.
@@ -42,12 +39,4 @@ public class TodayWidgetProvider extends AppWidgetProvider {
                                           int appWidgetId, Bundle newOptions) {
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
-
-    @Override
-    public void onReceive(@NonNull Context context, @NonNull Intent intent) {
-        super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
-        }
-    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the checked item again after the list changed, for the item staying put, moving a
+ * little, and being gone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChoiceReconcilerBenchmark {
+    private static final int ITEM_COUNT = 100;
+    private static final int SEARCH_DISTANCE = 20;
+    private static final int LAST_POSITION = 50;
+
+    // How far the rows moved, e.g. a sync that dropped days from the top of the list
+    @Param({"0", "5", "-1"})
+    public int shift;
+
+    private ChoiceReconciler.ItemIds mItemIds;
+
+    @Setup
+    public void setUp() {
+        final long[] ids = new long[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            // shift -1 stands for the checked item having been removed
+            ids[i] = shift < 0 ? 1000 + i : i + shift;
+        }
+        mItemIds = new ChoiceReconciler.ItemIds() {
+            @Override
+            public long getItemId(int position) {
+                return ids[position];
+            }
+        };
+    }
+
+    @Benchmark
+    public int findPosition() {
+        // the checked item's id was its position before the change
+        return ChoiceReconciler.findPosition(mItemIds, LAST_POSITION, LAST_POSITION,
+                SEARCH_DISTANCE, ITEM_COUNT);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Format calls per second for what the forecast list does on every bind.  The formats are the
+ * app's English ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FormatBenchmark {
+    private static final String FORMAT_TEMPERATURE = "%1.0f\u00B0";
+    private static final String FORMAT_WIND_KMH = "%1$1.0f km/h %2$s";
+    private static final long NOW = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    // Every code OpenWeatherMap documents, hit in turn
+    private static final int[] WEATHER_IDS = {
+            200, 201, 202, 210, 211, 212, 221, 230, 231, 232, 300, 301, 302, 310, 311, 312, 313,
+            314, 321, 500, 501, 502, 503, 504, 511, 520, 521, 522, 531, 600, 601, 602, 611, 612,
+            615, 616, 620, 621, 622, 701, 711, 721, 731, 741, 751, 761, 762, 771, 781, 800, 801,
+            802, 803, 804, 900, 901, 902, 903, 904, 905, 906, 951, 952, 953, 954, 955, 956, 957,
+            958, 959, 960, 961, 962
+    };
+
+    private int mNext;
+
+    @Benchmark
+    public String formatTemperatureMetric() {
+        return WeatherFormat.formatTemperature(FORMAT_TEMPERATURE, 21.4 + (mNext++ & 7), true);
+    }
+
+    @Benchmark
+    public String formatTemperatureImperial() {
+        return WeatherFormat.formatTemperature(FORMAT_TEMPERATURE, 21.4 + (mNext++ & 7), false);
+    }
+
+    @Benchmark
+    public String formatWind() {
+        return WeatherFormat.formatWind(FORMAT_WIND_KMH, 12.5f, (mNext++ * 37) % 360, true);
+    }
+
+    @Benchmark
+    public int getDayKind() {
+        return WeatherFormat.getDayKind(NOW + (mNext++ % 14) * DAY_IN_MILLIS, NOW, -9 * 3600);
+    }
+
+    @Benchmark
+    public int getCondition() {
+        return WeatherConditions.getCondition(WEATHER_IDS[mNext++ % WEATHER_IDS.length]);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+/**
+ * Finds where a checked item with a stable id went after its adapter's data changed, for
+ * ItemChoiceManager.
+ */
+public final class ChoiceReconciler {
+
+    public static final int NOT_FOUND = -1;
+
+    public interface ItemIds {
+        long getItemId(int position);
+    }
+
+    private ChoiceReconciler() {
+    }
+
+    /**
+     * Looks for {@code id} at its last known position, then up to {@code searchDistance}
+     * positions before and after it.
+     *
+     * @param itemCount the number of items after the change
+     * @return the item's new position, or NOT_FOUND if it wasn't nearby
+     */
+    public static int findPosition(ItemIds itemIds, long id, int lastPosition,
+                                   int searchDistance, int itemCount) {
+        if (itemIds.getItemId(lastPosition) == id) {
+            return lastPosition;
+        }
+        final int start = Math.max(0, lastPosition - searchDistance);
+        final int end = Math.min(lastPosition + searchDistance, itemCount);
+        for (int searchPos = start; searchPos < end; searchPos++) {
+            if (itemIds.getItemId(searchPos) == id) {
+                return searchPos;
+            }
+        }
+        return NOT_FOUND;
+    }
+}
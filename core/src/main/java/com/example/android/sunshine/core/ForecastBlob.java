@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A location's daily forecast in a small binary layout that can be read in place, for
+ * consumers that only need a few numbers per day.  All fields are little-endian and fixed-width:
+ * <pre>
+ *   header, HEADER_SIZE bytes
+ *     0  int    MAGIC
+ *     4  short  version, VERSION
+ *     6  short  header size in bytes
+ *     8  short  record size in bytes
+ *    10  short  number of days
+ *    12  long   when the blob was written, in milliseconds since the epoch
+ *    20  int    reserved
+ *   one record per day, in date order
+ *     0  long   date, in milliseconds since the epoch
+ *     8  short  OpenWeatherMap weather id
+ *    10  short  high, in tenths of a degree Celsius
+ *    12  short  low, in tenths of a degree Celsius
+ *    14  byte   humidity in percent
+ *    15  byte   reserved
+ *    16  short  pressure in tenths of a hectopascal, unsigned
+ *    18  short  wind speed in tenths of a meter per second, unsigned
+ *    20  short  wind direction in degrees
+ *    22  short  reserved
+ * </pre>
+ * Later versions may only add fields, at the end of the header or of the records, so a reader
+ * steps over records by the size in the header and can read any version from VERSION on.
+ * <p/>
+ * {@link #wrap(ByteBuffer)} reads fields straight from the buffer it is given, which can be a
+ * mapped file, without copying or allocating per day.
+ */
+public final class ForecastBlob {
+    public static final int MAGIC = 0x53554e46;  // "SUNF"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 24;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_HEADER_SIZE = 6;
+    private static final int OFFSET_RECORD_SIZE = 8;
+    private static final int OFFSET_DAY_COUNT = 10;
+    private static final int OFFSET_WRITTEN_AT = 12;
+
+    private static final int OFFSET_DATE = 0;
+    private static final int OFFSET_WEATHER_ID = 8;
+    private static final int OFFSET_HIGH = 10;
+    private static final int OFFSET_LOW = 12;
+    private static final int OFFSET_HUMIDITY = 14;
+    private static final int OFFSET_PRESSURE = 16;
+    private static final int OFFSET_WIND_SPEED = 18;
+    private static final int OFFSET_DEGREES = 20;
+
+    private final ByteBuffer mBuffer;
+    private final int mRecordsStart;
+    private final int mRecordSize;
+    private final int mDayCount;
+
+    private ForecastBlob(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mRecordsStart = buffer.getShort(OFFSET_HEADER_SIZE) & 0xffff;
+        mRecordSize = buffer.getShort(OFFSET_RECORD_SIZE) & 0xffff;
+        mDayCount = buffer.getShort(OFFSET_DAY_COUNT) & 0xffff;
+    }
+
+    /**
+     * @param buffer the blob, starting at the buffer's position.  It isn't copied, so it must
+     *               not change while the returned object is in use.
+     * @throws IllegalArgumentException if the buffer doesn't hold a blob this class can read
+     */
+    public static ForecastBlob wrap(ByteBuffer buffer) {
+        ByteBuffer blob = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (blob.capacity() < HEADER_SIZE || blob.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new IllegalArgumentException("Not a forecast blob");
+        }
+        int version = blob.getShort(OFFSET_VERSION) & 0xffff;
+        int headerSize = blob.getShort(OFFSET_HEADER_SIZE) & 0xffff;
+        int recordSize = blob.getShort(OFFSET_RECORD_SIZE) & 0xffff;
+        int dayCount = blob.getShort(OFFSET_DAY_COUNT) & 0xffff;
+        if (version < VERSION || headerSize < HEADER_SIZE || recordSize < RECORD_SIZE) {
+            throw new IllegalArgumentException("Unsupported forecast blob version " + version);
+        }
+        if (blob.capacity() < headerSize + (long) dayCount * recordSize) {
+            throw new IllegalArgumentException("Truncated forecast blob");
+        }
+        return new ForecastBlob(blob);
+    }
+
+    public int getVersion() {
+        return mBuffer.getShort(OFFSET_VERSION) & 0xffff;
+    }
+
+    public long getWrittenAt() {
+        return mBuffer.getLong(OFFSET_WRITTEN_AT);
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    private int record(int day) {
+        if (day < 0 || day >= mDayCount) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mDayCount);
+        }
+        return mRecordsStart + day * mRecordSize;
+    }
+
+    public long getDate(int day) {
+        return mBuffer.getLong(record(day) + OFFSET_DATE);
+    }
+
+    public int getWeatherId(int day) {
+        return mBuffer.getShort(record(day) + OFFSET_WEATHER_ID);
+    }
+
+    public double getHigh(int day) {
+        return mBuffer.getShort(record(day) + OFFSET_HIGH) / 10.0;
+    }
+
+    public double getLow(int day) {
+        return mBuffer.getShort(record(day) + OFFSET_LOW) / 10.0;
+    }
+
+    public int getHumidity(int day) {
+        return mBuffer.get(record(day) + OFFSET_HUMIDITY) & 0xff;
+    }
+
+    public double getPressure(int day) {
+        return (mBuffer.getShort(record(day) + OFFSET_PRESSURE) & 0xffff) / 10.0;
+    }
+
+    public double getWindSpeed(int day) {
+        return (mBuffer.getShort(record(day) + OFFSET_WIND_SPEED) & 0xffff) / 10.0;
+    }
+
+    public int getDegrees(int day) {
+        return mBuffer.getShort(record(day) + OFFSET_DEGREES);
+    }
+
+    /**
+     * @return the index of the first day on or after {@code date}, or the day count if there
+     * is none
+     */
+    public int findDay(long date) {
+        for (int day = 0; day < mDayCount; day++) {
+            if (getDate(day) >= date) {
+                return day;
+            }
+        }
+        return mDayCount;
+    }
+
+    /**
+     * Writes a blob of the current version.  Values outside a field's range are clamped to it.
+     */
+    public static class Writer {
+        private final ByteBuffer mBuffer;
+        private int mDayCount;
+
+        public Writer(int maxDays, long writtenAt) {
+            mBuffer = ByteBuffer.allocate(HEADER_SIZE + maxDays * RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            mBuffer.putInt(OFFSET_MAGIC, MAGIC)
+                    .putShort(OFFSET_VERSION, (short) VERSION)
+                    .putShort(OFFSET_HEADER_SIZE, (short) HEADER_SIZE)
+                    .putShort(OFFSET_RECORD_SIZE, (short) RECORD_SIZE)
+                    .putLong(OFFSET_WRITTEN_AT, writtenAt);
+        }
+
+        public Writer addDay(long date, int weatherId, double high, double low, double humidity,
+                             double pressure, double windSpeed, double degrees) {
+            int record = HEADER_SIZE + mDayCount * RECORD_SIZE;
+            mBuffer.putLong(record + OFFSET_DATE, date)
+                    .putShort(record + OFFSET_WEATHER_ID, (short) clamp(weatherId, 0, 0x7fff))
+                    .putShort(record + OFFSET_HIGH, (short) scale(high, -0x8000, 0x7fff))
+                    .putShort(record + OFFSET_LOW, (short) scale(low, -0x8000, 0x7fff))
+                    .put(record + OFFSET_HUMIDITY, (byte) clamp(Math.round(humidity), 0, 100))
+                    .putShort(record + OFFSET_PRESSURE, (short) scale(pressure, 0, 0xffff))
+                    .putShort(record + OFFSET_WIND_SPEED, (short) scale(windSpeed, 0, 0xffff))
+                    .putShort(record + OFFSET_DEGREES,
+                            (short) clamp(Math.round(degrees) % 360, 0, 359));
+            mDayCount++;
+            return this;
+        }
+
+        private static long scale(double value, long min, long max) {
+            return clamp(Math.round(value * 10), min, max);
+        }
+
+        private static long clamp(long value, long min, long max) {
+            return Math.max(min, Math.min(max, value));
+        }
+
+        public int getDayCount() {
+            return mDayCount;
+        }
+
+        /**
+         * @return the blob, with as many records as days were added
+         */
+        public byte[] toByteArray() {
+            mBuffer.putShort(OFFSET_DAY_COUNT, (short) mDayCount);
+            byte[] blob = new byte[HEADER_SIZE + mDayCount * RECORD_SIZE];
+            System.arraycopy(mBuffer.array(), 0, blob, 0, blob.length);
+            return blob;
+        }
+    }
+}
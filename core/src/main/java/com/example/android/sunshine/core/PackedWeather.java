@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+/**
+ * The fixed-point encodings of the hourly forecast table.  Temperatures are kept in tenths of a
+ * degree Celsius, and the humidity, pressure and wind of a point share a single integer:
+ * <pre>
+ *   bits  0-6   humidity in percent, 0 to 100
+ *   bits  7-15  wind direction in degrees, 0 to 359
+ *   bits 16-26  wind speed in tenths of a meter per second, up to 204.7
+ *   bits 27-39  pressure in tenths of a hectopascal above 800, up to 1619.1
+ * </pre>
+ * SQLite stores a value of that size in six bytes, against the 32 of four REAL columns.
+ * Values outside a field's range are clamped to it.
+ */
+public final class PackedWeather {
+    private static final int HUMIDITY_SHIFT = 0;
+    private static final int HUMIDITY_BITS = 7;
+    private static final int DEGREES_SHIFT = 7;
+    private static final int DEGREES_BITS = 9;
+    private static final int WIND_SHIFT = 16;
+    private static final int WIND_BITS = 11;
+    private static final int PRESSURE_SHIFT = 27;
+    private static final int PRESSURE_BITS = 13;
+
+    private static final double PRESSURE_OFFSET = 800;
+
+    private PackedWeather() {
+    }
+
+    public static int scaleTemperature(double celsius) {
+        return (int) Math.round(celsius * 10);
+    }
+
+    public static double getTemperature(int scaled) {
+        return scaled / 10.0;
+    }
+
+    /**
+     * @param windSpeed in meters per second
+     * @param pressure  in hectopascals
+     */
+    public static long pack(double humidity, double pressure, double windSpeed, double degrees) {
+        return field(Math.round(humidity), Math.min(100, (1 << HUMIDITY_BITS) - 1),
+                HUMIDITY_SHIFT)
+                | field(Math.round(degrees) % 360, 359, DEGREES_SHIFT)
+                | field(Math.round(windSpeed * 10), (1 << WIND_BITS) - 1, WIND_SHIFT)
+                | field(Math.round((pressure - PRESSURE_OFFSET) * 10), (1 << PRESSURE_BITS) - 1,
+                PRESSURE_SHIFT);
+    }
+
+    private static long field(long value, long max, int shift) {
+        return Math.max(0, Math.min(max, value)) << shift;
+    }
+
+    private static long get(long packed, int shift, int bits) {
+        return (packed >>> shift) & ((1L << bits) - 1);
+    }
+
+    public static int getHumidity(long packed) {
+        return (int) get(packed, HUMIDITY_SHIFT, HUMIDITY_BITS);
+    }
+
+    public static int getDegrees(long packed) {
+        return (int) get(packed, DEGREES_SHIFT, DEGREES_BITS);
+    }
+
+    public static double getWindSpeed(long packed) {
+        return get(packed, WIND_SHIFT, WIND_BITS) / 10.0;
+    }
+
+    public static double getPressure(long packed) {
+        return PRESSURE_OFFSET + get(packed, PRESSURE_SHIFT, PRESSURE_BITS) / 10.0;
+    }
+}
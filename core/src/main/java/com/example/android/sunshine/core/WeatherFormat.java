@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+/**
+ * The arithmetic behind Sunshine's temperature, wind and day formatting.  The format strings
+ * come from the app's resources, everything else is here.
+ */
+public final class WeatherFormat {
+
+    public static final int DAY_TODAY = 0;
+    public static final int DAY_TOMORROW = 1;
+    // Any other day before a week from today, including days in the past
+    public static final int DAY_THIS_WEEK = 2;
+    public static final int DAY_LATER = 3;
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    // The Julian day of the epoch, as in android.text.format.Time
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final float MILES_PER_KILOMETER = .621371192237334f;
+
+    private WeatherFormat() {
+    }
+
+    /**
+     * Data is stored in Celsius.  If the user prefers to see Fahrenheit, converts the value.
+     */
+    public static double toDisplayTemperature(double celsius, boolean metric) {
+        return metric ? celsius : (celsius * 1.8) + 32;
+    }
+
+    /**
+     * @param format takes the temperature as a float, as the app's format_temperature does
+     */
+    public static String formatTemperature(String format, double celsius, boolean metric) {
+        return String.format(format, toDisplayTemperature(celsius, metric));
+    }
+
+    /**
+     * @param format takes the speed as a float and the compass direction as a string
+     * @param windSpeed in km/h, converted to mph if not metric
+     */
+    public static String formatWind(String format, float windSpeed, float degrees,
+                                    boolean metric) {
+        if (!metric) {
+            windSpeed = MILES_PER_KILOMETER * windSpeed;
+        }
+        return String.format(format, windSpeed, getWindDirection(degrees));
+    }
+
+    /**
+     * From wind direction in degrees, determines the compass direction, e.g. "NW".
+     */
+    public static String getWindDirection(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            return "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            return "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            return "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            return "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            return "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            return "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            return "NW";
+        }
+        return "Unknown";
+    }
+
+    /**
+     * Same as android.text.format.Time.getJulianDay.
+     *
+     * @param gmtoff the offset of the local time zone from UTC in seconds
+     */
+    public static int getJulianDay(long millis, long gmtoff) {
+        long offsetMillis = gmtoff * 1000;
+        long julianDay = (millis + offsetMillis) / DAY_IN_MILLIS;
+        return (int) julianDay + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * Which kind of name a date gets in the forecast, relative to now in the local time zone.
+     *
+     * @param gmtoff the offset of the local time zone from UTC in seconds
+     * @return one of the DAY constants
+     */
+    public static int getDayKind(long dateInMillis, long nowInMillis, long gmtoff) {
+        int julianDay = getJulianDay(dateInMillis, gmtoff);
+        int currentJulianDay = getJulianDay(nowInMillis, gmtoff);
+        if (julianDay == currentJulianDay) {
+            return DAY_TODAY;
+        } else if (julianDay == currentJulianDay + 1) {
+            return DAY_TOMORROW;
+        } else if (julianDay < currentJulianDay + 7) {
+            return DAY_THIS_WEEK;
+        }
+        return DAY_LATER;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestForecastBlob {
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final long START_DATE = 1419033600000L;  // December 20th, 2014
+
+    private static byte[] createBlob() {
+        return new ForecastBlob.Writer(3, START_DATE + 1)
+                .addDay(START_DATE, 321, 21.46, -3.04, 55, 1013.2, 5.4, 359.7)
+                .addDay(START_DATE + DAY_IN_MILLIS, 800, -40, -50.5, 101, 700, 0, 10)
+                .toByteArray();
+    }
+
+    @Test
+    public void roundTrips() {
+        byte[] bytes = createBlob();
+        assertEquals(ForecastBlob.HEADER_SIZE + 2 * ForecastBlob.RECORD_SIZE, bytes.length);
+
+        ForecastBlob blob = ForecastBlob.wrap(ByteBuffer.wrap(bytes));
+        assertEquals(ForecastBlob.VERSION, blob.getVersion());
+        assertEquals(START_DATE + 1, blob.getWrittenAt());
+        assertEquals(2, blob.getDayCount());
+        assertEquals(START_DATE, blob.getDate(0));
+        assertEquals(321, blob.getWeatherId(0));
+        assertEquals(21.5, blob.getHigh(0), 0.0001);
+        assertEquals(-3.0, blob.getLow(0), 0.0001);
+        assertEquals(55, blob.getHumidity(0));
+        assertEquals(1013.2, blob.getPressure(0), 0.0001);
+        assertEquals(5.4, blob.getWindSpeed(0), 0.0001);
+        assertEquals(0, blob.getDegrees(0));
+
+        // clamped to the field ranges
+        assertEquals(100, blob.getHumidity(1));
+        assertEquals(-50.5, blob.getLow(1), 0.0001);
+
+        assertEquals(1, blob.findDay(START_DATE + 1));
+        assertEquals(2, blob.findDay(START_DATE + 2 * DAY_IN_MILLIS));
+    }
+
+    @Test
+    public void readsFromTheBufferPosition() {
+        byte[] bytes = createBlob();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 7);
+        buffer.position(7);
+        buffer.put(bytes);
+        buffer.position(7);
+        assertEquals(321, ForecastBlob.wrap(buffer).getWeatherId(0));
+    }
+
+    @Test
+    public void rejectsOtherData() {
+        try {
+            ForecastBlob.wrap(ByteBuffer.wrap(new byte[64]));
+            fail("Read a blob without the magic number");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            ForecastBlob.wrap(ByteBuffer.wrap(Arrays.copyOf(createBlob(), 40)));
+            fail("Read a truncated blob");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestOwmParser {
+    private static final String FORECAST = "{\"city\":{\"id\":5861897,\"name\":\"Fairbanks\"," +
+            "\"coord\":{\"lon\":-147.716393,\"lat\":64.83778},\"country\":\"US\"}," +
+            "\"cod\":\"200\",\"message\":0.0123,\"cnt\":2,\"list\":[" +
+            "{\"dt\":1419076800,\"temp\":{\"day\":-12.5,\"min\":-16.1,\"max\":-9.2}," +
+            "\"pressure\":1003.2,\"humidity\":88,\"weather\":[{\"id\":600,\"main\":\"Snow\"," +
+            "\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":3.1,\"deg\":220}," +
+            "{\"dt\":1419163200,\"temp\":{\"day\":-14.0,\"min\":-20.0,\"max\":-11.0}," +
+            "\"pressure\":1010.0,\"humidity\":75,\"weather\":[{\"id\":800,\"main\":\"Clear\"," +
+            "\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.5,\"deg\":10}]}";
+
+    @Test
+    public void parsesForecast() throws JSONException {
+        OwmForecast forecast = OwmParser.parse(FORECAST);
+        assertEquals(OwmForecast.CODE_OK, forecast.code);
+        assertEquals("Fairbanks", forecast.cityName);
+        assertEquals(64.83778, forecast.latitude, 0);
+        assertEquals(-147.716393, forecast.longitude, 0);
+        assertEquals(2, forecast.days.size());
+
+        OwmForecast.Day day = forecast.days.get(0);
+        assertEquals(1003.2, day.pressure, 0);
+        assertEquals(88, day.humidity);
+        assertEquals(3.1, day.windSpeed, 0);
+        assertEquals(220, day.windDirection, 0);
+        assertEquals(-9.2, day.high, 0);
+        assertEquals(-16.1, day.low, 0);
+        assertEquals("Snow", day.description);
+        assertEquals(600, day.weatherId);
+        assertEquals(800, forecast.days.get(1).weatherId);
+    }
+
+    @Test
+    public void returnsErrorCode() throws JSONException {
+        OwmForecast forecast = OwmParser.parse(
+                "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+        assertEquals(404, forecast.code);
+        assertTrue(forecast.days.isEmpty());
+    }
+
+    @Test(expected = JSONException.class)
+    public void rejectsTruncatedResponse() throws JSONException {
+        OwmParser.parse(FORECAST.substring(0, FORECAST.length() / 2));
+    }
+}
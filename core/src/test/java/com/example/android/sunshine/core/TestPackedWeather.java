@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestPackedWeather {
+    @Test
+    public void roundTrips() {
+        long packed = PackedWeather.pack(87, 1013.2, 5.4, 271);
+        assertEquals(87, PackedWeather.getHumidity(packed));
+        assertEquals(1013.2, PackedWeather.getPressure(packed), 0.0001);
+        assertEquals(5.4, PackedWeather.getWindSpeed(packed), 0.0001);
+        assertEquals(271, PackedWeather.getDegrees(packed));
+
+        assertEquals(-123, PackedWeather.scaleTemperature(-12.34));
+        assertEquals(-12.3, PackedWeather.getTemperature(-123), 0.0001);
+    }
+
+    @Test
+    public void clampsToTheFieldRanges() {
+        long packed = PackedWeather.pack(120, 700, 300, 360);
+        assertEquals(100, PackedWeather.getHumidity(packed));
+        assertEquals(800, PackedWeather.getPressure(packed), 0.0001);
+        assertEquals(204.7, PackedWeather.getWindSpeed(packed), 0.0001);
+        assertEquals(0, PackedWeather.getDegrees(packed));
+
+        packed = PackedWeather.pack(-1, 2000, -1, 359.6);
+        assertEquals(0, PackedWeather.getHumidity(packed));
+        assertEquals(1619.1, PackedWeather.getPressure(packed), 0.0001);
+        assertEquals(0, PackedWeather.getWindSpeed(packed), 0.0001);
+        assertEquals(0, PackedWeather.getDegrees(packed));
+    }
+}
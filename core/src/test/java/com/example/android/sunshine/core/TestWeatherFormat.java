@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestWeatherFormat {
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final long NOW = 1419033600000L;  // December 20th, 2014, 00:00 UTC
+
+    @Test
+    public void convertsTemperature() {
+        assertEquals(21.5, WeatherFormat.toDisplayTemperature(21.5, true), 0);
+        assertEquals(212, WeatherFormat.toDisplayTemperature(100, false), 0.0001);
+        assertEquals(-40, WeatherFormat.toDisplayTemperature(-40, false), 0.0001);
+    }
+
+    @Test
+    public void formatsWind() {
+        Locale.setDefault(Locale.US);
+        assertEquals("10 km/h NW", WeatherFormat.formatWind("%1$1.0f km/h %2$s", 10, 315, true));
+        assertEquals("6 mph N", WeatherFormat.formatWind("%1$1.0f mph %2$s", 10, 359, false));
+        assertEquals("N", WeatherFormat.getWindDirection(0));
+        assertEquals("Unknown", WeatherFormat.getWindDirection(Float.NaN));
+    }
+
+    @Test
+    public void namesDays() {
+        assertEquals(WeatherFormat.DAY_TODAY, WeatherFormat.getDayKind(NOW, NOW, 0));
+        assertEquals(WeatherFormat.DAY_TOMORROW,
+                WeatherFormat.getDayKind(NOW + DAY_IN_MILLIS, NOW, 0));
+        assertEquals(WeatherFormat.DAY_THIS_WEEK,
+                WeatherFormat.getDayKind(NOW + 6 * DAY_IN_MILLIS, NOW, 0));
+        assertEquals(WeatherFormat.DAY_LATER,
+                WeatherFormat.getDayKind(NOW + 7 * DAY_IN_MILLIS, NOW, 0));
+        // an hour before midnight UTC is still the previous day in Alaska, 9 hours behind
+        assertEquals(WeatherFormat.DAY_TOMORROW,
+                WeatherFormat.getDayKind(NOW + DAY_IN_MILLIS, NOW - 3600 * 1000, -9 * 3600));
+    }
+
+    @Test
+    public void mapsConditions() {
+        assertEquals(WeatherConditions.CONDITION_STORM, WeatherConditions.getCondition(211));
+        assertEquals(WeatherConditions.CONDITION_SNOW, WeatherConditions.getCondition(511));
+        assertEquals(WeatherConditions.CONDITION_FOG, WeatherConditions.getCondition(761));
+        assertEquals(WeatherConditions.CONDITION_STORM, WeatherConditions.getCondition(781));
+        assertEquals(WeatherConditions.CONDITION_CLOUDS, WeatherConditions.getCondition(804));
+        assertEquals(WeatherConditions.CONDITION_NONE, WeatherConditions.getCondition(900));
+        assertEquals("light_clouds", WeatherConditions.getArtName(
+                WeatherConditions.getCondition(801)));
+        assertNull(WeatherConditions.getArtName(WeatherConditions.CONDITION_NONE));
+    }
+}
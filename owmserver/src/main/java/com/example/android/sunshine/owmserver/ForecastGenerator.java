@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.owmserver;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Builds realistic OpenWeatherMap forecast/daily and 3-hour forecast responses: the same
+ * fields, nesting and number formats as the real API, with weather that is random but
+ * repeatable for a seed.
+ */
+public final class ForecastGenerator {
+    private static final int[] WEATHER_IDS = {200, 301, 500, 511, 600, 701, 781, 800, 801, 803};
+    private static final String[] DESCRIPTIONS = {
+            "Thunderstorm", "Drizzle", "Rain", "Rain", "Snow", "Mist", "Tornado", "Clear",
+            "Clouds", "Clouds"
+    };
+    private static final long DAY_IN_SECONDS = 60 * 60 * 24;
+    private static final long STEP_IN_SECONDS = 60 * 60 * 3;
+
+    private ForecastGenerator() {
+    }
+
+    /**
+     * @return a forecast for Fairbanks, as in the app's tests
+     */
+    public static String create(int days, long seed) {
+        return create("Fairbanks", 64.83778, -147.716393, days, 1419076800L, seed);
+    }
+
+    /**
+     * @param startTime the "dt" of the first day, in seconds
+     */
+    public static String create(String cityName, double latitude, double longitude, int days,
+                                long startTime, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(256 + days * 320);
+        json.append("{\"city\":{\"id\":").append(Math.abs(seed % 10000000))
+                .append(",\"name\":\"").append(escape(cityName)).append("\",")
+                .append("\"coord\":{\"lon\":").append(longitude)
+                .append(",\"lat\":").append(latitude).append("},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            int weather = random.nextInt(WEATHER_IDS.length);
+            double low = -20 + random.nextInt(300) / 10.0;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(startTime + i * DAY_IN_SECONDS)
+                    .append(",\"temp\":{\"day\":").append(low + 4)
+                    .append(",\"min\":").append(low)
+                    .append(",\"max\":").append(low + 8)
+                    .append(",\"night\":").append(low + 1)
+                    .append(",\"eve\":").append(low + 3)
+                    .append(",\"morn\":").append(low + 2).append("},")
+                    .append("\"pressure\":").append(990 + random.nextInt(400) / 10.0)
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append(",\"weather\":[{\"id\":").append(WEATHER_IDS[weather])
+                    .append(",\"main\":\"").append(DESCRIPTIONS[weather])
+                    .append("\",\"description\":\"").append(DESCRIPTIONS[weather].toLowerCase())
+                    .append("\",\"icon\":\"10d\"}],")
+                    .append("\"speed\":").append(random.nextInt(200) / 10.0)
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100)).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @param startTime the "dt" of the first point, in seconds
+     * @return a forecast in 3-hour steps, as served by /data/2.5/forecast
+     */
+    public static String createHourly(String cityName, double latitude, double longitude,
+                                      int points, long startTime, long seed) {
+        Random random = new Random(seed);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder json = new StringBuilder(256 + points * 420);
+        json.append("{\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(points)
+                .append(",\"list\":[");
+        double temperature = -10 + random.nextInt(250) / 10.0;
+        for (int i = 0; i < points; i++) {
+            int weather = random.nextInt(WEATHER_IDS.length);
+            long time = startTime + i * STEP_IN_SECONDS;
+            temperature = Math.round(temperature * 10 + random.nextInt(41) - 20) / 10.0;
+            double pressure = 990 + random.nextInt(400) / 10.0;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(time)
+                    .append(",\"main\":{\"temp\":").append(temperature)
+                    .append(",\"temp_min\":").append(temperature - 1)
+                    .append(",\"temp_max\":").append(temperature + 1)
+                    .append(",\"pressure\":").append(pressure)
+                    .append(",\"sea_level\":").append(pressure + 12)
+                    .append(",\"grnd_level\":").append(pressure)
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append(",\"temp_kf\":0},")
+                    .append("\"weather\":[{\"id\":").append(WEATHER_IDS[weather])
+                    .append(",\"main\":\"").append(DESCRIPTIONS[weather])
+                    .append("\",\"description\":\"").append(DESCRIPTIONS[weather].toLowerCase())
+                    .append("\",\"icon\":\"10d\"}],")
+                    .append("\"clouds\":{\"all\":").append(random.nextInt(100)).append("},")
+                    .append("\"wind\":{\"speed\":").append(random.nextInt(200) / 10.0)
+                    .append(",\"deg\":").append(random.nextInt(3600) / 10.0).append("},")
+                    .append("\"sys\":{\"pod\":\"d\"},")
+                    .append("\"dt_txt\":\"").append(timeFormat.format(new Date(time * 1000)))
+                    .append("\"}");
+        }
+        json.append("],\"city\":{\"id\":").append(Math.abs(seed % 10000000))
+                .append(",\"name\":\"").append(escape(cityName)).append("\",")
+                .append("\"coord\":{\"lat\":").append(latitude)
+                .append(",\"lon\":").append(longitude).append("},")
+                .append("\"country\":\"US\"}}");
+        return json.toString();
+    }
+
+    /**
+     * @return the error body OpenWeatherMap sends with a "cod" other than 200
+     */
+    public static String createError(int code, String message) {
+        return "{\"cod\":\"" + code + "\",\"message\":\"" + escape(message) + "\"}";
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
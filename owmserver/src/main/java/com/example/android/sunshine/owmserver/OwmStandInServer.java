@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.owmserver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves /data/2.5/forecast/daily and the 3-hour /data/2.5/forecast like OpenWeatherMap does,
+ * for any location and number of days or steps, with configurable latency and failures.
+ * Options:
+ * <pre>
+ *   --port N             port to listen on, 8080
+ *   --latency MS         delay before every response, 0
+ *   --jitter MS          up to this much extra delay, uniformly distributed, 0
+ *   --http-404-rate P    fraction of requests answered with HTTP 404, 0
+ *   --cod-error-rate P   fraction answered with HTTP 200 and {"cod":"404"}, 0
+ *   --truncate-rate P    fraction whose body is cut off halfway, 0
+ *   --seed N             seed for the latency and failure draws, 0
+ * </pre>
+ * Failures can also be asked for by location, which keeps a test deterministic whatever the
+ * rates: q=404, q=500, q=cod404, q=cod500 and q=truncated fail that way on every request, and
+ * q=429 gets HTTP 429 with a Retry-After of {@link #RETRY_AFTER_SECONDS}.
+ * <p/>
+ * Responses carry an ETag that changes once a day per location, and a matching
+ * If-None-Match gets a 304.  GET /stats returns the number of responses of each kind.
+ */
+public class OwmStandInServer {
+    public static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+    public static final String HOURLY_FORECAST_PATH = "/data/2.5/forecast";
+    public static final String STATS_PATH = "/stats";
+
+    public static final String SCENARIO_HTTP_404 = "404";
+    public static final String SCENARIO_HTTP_500 = "500";
+    public static final String SCENARIO_HTTP_429 = "429";
+    public static final String SCENARIO_COD_404 = "cod404";
+    public static final String SCENARIO_COD_500 = "cod500";
+    public static final String SCENARIO_TRUNCATED = "truncated";
+
+    // What q=429 asks the client to wait, in seconds
+    public static final long RETRY_AFTER_SECONDS = 120;
+    // Too Many Requests, which HttpURLConnection has no constant for
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int DEFAULT_DAYS = 7;
+    private static final int DEFAULT_HOURLY_POINTS = 40;
+    private static final long DAY_IN_SECONDS = 60 * 60 * 24;
+    private static final long STEP_IN_SECONDS = 60 * 60 * 3;
+
+    private final long mLatencyMillis;
+    private final long mJitterMillis;
+    private final double mHttp404Rate;
+    private final double mCodErrorRate;
+    private final double mTruncateRate;
+    private final Random mRandom;
+
+    private final Map<String, AtomicLong> mStats = new HashMap<String, AtomicLong>();
+
+    public OwmStandInServer(long latencyMillis, long jitterMillis, double http404Rate,
+                            double codErrorRate, double truncateRate, long seed) {
+        mLatencyMillis = latencyMillis;
+        mJitterMillis = jitterMillis;
+        mHttp404Rate = http404Rate;
+        mCodErrorRate = codErrorRate;
+        mTruncateRate = truncateRate;
+        mRandom = new Random(seed);
+        for (String kind : new String[]{"ok", "not_modified", "http_404", "http_500",
+                "http_429", "cod_404", "cod_500", "truncated"}) {
+            mStats.put(kind, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        int port = Integer.parseInt(get(options, "port", "8080"));
+        OwmStandInServer server = new OwmStandInServer(
+                Long.parseLong(get(options, "latency", "0")),
+                Long.parseLong(get(options, "jitter", "0")),
+                Double.parseDouble(get(options, "http-404-rate", "0")),
+                Double.parseDouble(get(options, "cod-error-rate", "0")),
+                Double.parseDouble(get(options, "truncate-rate", "0")),
+                Long.parseLong(get(options, "seed", "0")));
+        server.start(port);
+        System.out.println("Serving " + FORECAST_PATH + " and " + HOURLY_FORECAST_PATH +
+                " on port " + port);
+    }
+
+    private static String get(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    public HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(FORECAST_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serveForecast(exchange, false);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        // The longest matching context wins, so this one only gets the 3-hour requests
+        server.createContext(HOURLY_FORECAST_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serveForecast(exchange, true);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext(STATS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    send(exchange, HttpURLConnection.HTTP_OK, null, getStats(), false);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        // The sync adapter makes one request at a time, but a load test may run several
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+        return server;
+    }
+
+    private void serveForecast(HttpExchange exchange, boolean hourly) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String query = params.get("q");
+        String location = query != null ? query : params.get("lat") + "," + params.get("lon");
+        int count = params.containsKey("cnt") ? Integer.parseInt(params.get("cnt"))
+                : hourly ? DEFAULT_HOURLY_POINTS : DEFAULT_DAYS;
+
+        // One draw per request from the shared generator keeps a run repeatable for a seed
+        // as long as the requests arrive in the same order
+        double latencyDraw;
+        double failureDraw;
+        synchronized (mRandom) {
+            latencyDraw = mRandom.nextDouble();
+            failureDraw = mRandom.nextDouble();
+        }
+        sleep(mLatencyMillis + (long) (latencyDraw * mJitterMillis));
+
+        if (SCENARIO_HTTP_404.equals(query) || failureDraw < mHttp404Rate) {
+            count("http_404");
+            send(exchange, HttpURLConnection.HTTP_NOT_FOUND, null,
+                    ForecastGenerator.createError(404, "Not found"), false);
+            return;
+        }
+        failureDraw -= mHttp404Rate;
+        if (SCENARIO_HTTP_500.equals(query)) {
+            count("http_500");
+            send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, null, "", false);
+            return;
+        }
+        if (SCENARIO_HTTP_429.equals(query)) {
+            count("http_429");
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(RETRY_AFTER_SECONDS));
+            send(exchange, HTTP_TOO_MANY_REQUESTS, null,
+                    ForecastGenerator.createError(429, "Too many requests"), false);
+            return;
+        }
+        if (SCENARIO_COD_404.equals(query) || failureDraw >= 0 && failureDraw < mCodErrorRate) {
+            count("cod_404");
+            send(exchange, HttpURLConnection.HTTP_OK, null,
+                    ForecastGenerator.createError(404, "Error: Not found city"), false);
+            return;
+        }
+        failureDraw -= mCodErrorRate;
+        if (SCENARIO_COD_500.equals(query)) {
+            count("cod_500");
+            send(exchange, HttpURLConnection.HTTP_OK, null,
+                    ForecastGenerator.createError(500, "Internal error"), false);
+            return;
+        }
+
+        // The forecast for a location changes once a day, or once a step for the 3-hour one,
+        // like the real one roughly does
+        long now = System.currentTimeMillis() / 1000;
+        long period = hourly ? now / STEP_IN_SECONDS : now / DAY_IN_SECONDS;
+        long seed = (location.hashCode() * 31L + period) * 2 + (hourly ? 1 : 0);
+        String etag = "\"" + Long.toHexString(seed * 31 + count) + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            count("not_modified");
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            return;
+        }
+
+        Random coordinates = new Random(location.hashCode());
+        String cityName = query != null ? query : "Somewhere";
+        double latitude = coordinates.nextDouble() * 180 - 90;
+        double longitude = coordinates.nextDouble() * 360 - 180;
+        String body = hourly
+                ? ForecastGenerator.createHourly(cityName, latitude, longitude, count,
+                (period + 1) * STEP_IN_SECONDS, seed)
+                : ForecastGenerator.create(cityName, latitude, longitude, count,
+                period * DAY_IN_SECONDS + DAY_IN_SECONDS / 2, seed);
+        boolean truncated = SCENARIO_TRUNCATED.equals(query)
+                || failureDraw >= 0 && failureDraw < mTruncateRate;
+        count(truncated ? "truncated" : "ok");
+        send(exchange, HttpURLConnection.HTTP_OK, etag, body, truncated);
+    }
+
+    private static void send(HttpExchange exchange, int status, String etag, String body,
+                             boolean truncated) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        // A truncated body is sent chunked and just stops, like a dropped connection
+        exchange.sendResponseHeaders(status, truncated ? 0 : bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes, 0, truncated ? bytes.length / 2 : bytes.length);
+        out.flush();
+    }
+
+    private void count(String kind) {
+        mStats.get(kind).incrementAndGet();
+    }
+
+    String getStats() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, AtomicLong> entry : mStats.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(entry.getKey()).append("\":").append(entry.getValue().get());
+        }
+        return json.append('}').toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery)
+            throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}